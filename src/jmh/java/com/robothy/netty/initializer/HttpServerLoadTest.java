@@ -0,0 +1,239 @@
+package com.robothy.netty.initializer;
+
+import com.robothy.netty.codec.RequestBodyOptions;
+import com.robothy.netty.router.Router;
+import com.robothy.netty.utils.VirtualThreads;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * An in-process load test of the {@link HttpServerInitializer} pipeline. The server is started on
+ * loopback and driven by a Netty client in the same JVM.
+ *
+ * <p>Options are passed as {@code --name=value}:
+ * <ul>
+ *   <li>{@code connections} number of client connections, default 16.</li>
+ *   <li>{@code pipeline} requests in flight per connection, default 1.</li>
+ *   <li>{@code keepAlive} reuse connections, default true. Without keep-alive the client closes the
+ *   connection after each response and the pipeline depth is 1.</li>
+ *   <li>{@code rate} target requests per second of all connections, default 0 which sends requests
+ *   back to back.</li>
+ *   <li>{@code requestSize} request body bytes, default 0 which sends {@code GET} instead of {@code POST}.</li>
+ *   <li>{@code responseSize} response body bytes, default 1024.</li>
+ *   <li>{@code warmup} and {@code duration} seconds, default 10 and 30.</li>
+ *   <li>{@code ioThreads} and {@code executorThreads} of the server, default 2 and 4.</li>
+ *   <li>{@code virtualThreads} run handlers on virtual threads instead of the executor threads, default
+ *   false. Requires JDK 21+, allocation of virtual threads is not counted.</li>
+ *   <li>{@code pipeliningDepth} pipelined requests the server handles at once per connection, default 1.</li>
+ * </ul>
+ *
+ * <p>With a target rate, latencies are measured from the intended request times. Without a target
+ * rate, latencies are corrected for coordinated omission with the mean latency of the warmup as the
+ * expected interval, like wrk does. Allocation per request is the bytes allocated by the server threads
+ * divided by the completed requests, it is only reported on JVMs that support thread allocation counters.
+ */
+public final class HttpServerLoadTest {
+
+  static final long MAX_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  private static final String SERVER_THREAD_PREFIX = "load-test-server";
+
+  private final Map<String, String> options;
+
+  private HttpServerLoadTest(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || arg.indexOf('=') == -1) {
+        throw new IllegalArgumentException("Options must be passed as --name=value, got " + arg);
+      }
+      options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+    new HttpServerLoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    int connections = intOption("connections", 16);
+    boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keepAlive", "true"));
+    int pipeline = keepAlive ? intOption("pipeline", 1) : 1;
+    int rate = intOption("rate", 0);
+    int requestSize = intOption("requestSize", 0);
+    int responseSize = intOption("responseSize", 1024);
+    int warmup = intOption("warmup", 10);
+    int duration = intOption("duration", 30);
+    boolean virtualThreads = Boolean.parseBoolean(options.getOrDefault("virtualThreads", "false"));
+    int pipeliningDepth = intOption("pipeliningDepth", 1);
+
+    byte[] responseBody = new byte[responseSize];
+    Arrays.fill(responseBody, (byte) 'a');
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/payload", (request, response) -> response.write(responseBody))
+        .route(HttpMethod.POST, "/payload", (request, response) -> response.write(responseBody))
+        .freeze();
+
+    EventLoopGroup parentGroup = new NioEventLoopGroup(1, new DefaultThreadFactory(SERVER_THREAD_PREFIX + "-boss"));
+    EventLoopGroup childGroup = new NioEventLoopGroup(intOption("ioThreads", 2),
+        new DefaultThreadFactory(SERVER_THREAD_PREFIX + "-io"));
+    DefaultEventExecutorGroup executor = new DefaultEventExecutorGroup(intOption("executorThreads", 4),
+        new DefaultThreadFactory(SERVER_THREAD_PREFIX + "-executor"));
+    EventLoopGroup clientGroup = new NioEventLoopGroup(Math.min(connections, Runtime.getRuntime().availableProcessors()),
+        new DefaultThreadFactory("load-test-client"));
+
+    ExecutorService virtualThreadExecutor = virtualThreads ? VirtualThreads.newVirtualThreadPerTaskExecutor() : null;
+
+    List<LoadConnection> loadConnections = new ArrayList<>();
+    try {
+      Channel server = new ServerBootstrap()
+          .group(parentGroup, childGroup)
+          .channel(NioServerSocketChannel.class)
+          .childHandler((virtualThreads
+              ? HttpServerInitializer.offloading(virtualThreadExecutor, router, RequestBodyOptions.defaults())
+              : new HttpServerInitializer(executor, router)).pipeliningDepth(pipeliningDepth))
+          .bind(new InetSocketAddress("127.0.0.1", 0))
+          .sync()
+          .channel();
+      InetSocketAddress address = (InetSocketAddress) server.localAddress();
+
+      FullHttpRequest request = request(address, requestSize, keepAlive);
+      Bootstrap bootstrap = new Bootstrap()
+          .group(clientGroup)
+          .channel(NioSocketChannel.class)
+          .option(ChannelOption.TCP_NODELAY, true)
+          .remoteAddress(address);
+      long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * connections / rate : 0;
+      Recorder recorder = new Recorder(MAX_LATENCY_NANOS, 3);
+      LongAdder errors = new LongAdder();
+      for (int i = 0; i < connections; i++) {
+        LoadConnection connection = new LoadConnection(bootstrap, request, pipeline, keepAlive, intervalNanos,
+            recorder, errors);
+        loadConnections.add(connection);
+        connection.connect().sync();
+      }
+
+      System.out.printf(Locale.ROOT, "Connections: %d, pipeline: %d, keep-alive: %s, rate: %s, "
+              + "request: %d B, response: %d B%n", connections, pipeline, keepAlive,
+          rate > 0 ? rate + "/s" : "max", requestSize, responseSize);
+
+      TimeUnit.SECONDS.sleep(warmup);
+      Histogram warmupHistogram = recorder.getIntervalHistogram();
+      errors.reset();
+      long[] serverThreads = serverThreads();
+      long allocatedBefore = allocatedBytes(serverThreads);
+      long start = System.nanoTime();
+
+      TimeUnit.SECONDS.sleep(duration);
+      Histogram histogram = recorder.getIntervalHistogram();
+      long elapsed = System.nanoTime() - start;
+      long allocated = allocatedBytes(serverThreads) - allocatedBefore;
+
+      if (rate == 0 && warmupHistogram.getTotalCount() > 0) {
+        histogram = histogram.copyCorrectedForCoordinatedOmission((long) warmupHistogram.getMean());
+      }
+      report(histogram, elapsed, errors.sum(), allocatedBefore < 0 ? -1 : allocated);
+    } finally {
+      loadConnections.forEach(LoadConnection::stop);
+      clientGroup.shutdownGracefully().syncUninterruptibly();
+      parentGroup.shutdownGracefully().syncUninterruptibly();
+      childGroup.shutdownGracefully().syncUninterruptibly();
+      executor.shutdownGracefully().syncUninterruptibly();
+      if (virtualThreadExecutor != null) {
+        virtualThreadExecutor.shutdown();
+      }
+    }
+  }
+
+  private static FullHttpRequest request(InetSocketAddress address, int requestSize, boolean keepAlive) {
+    byte[] body = new byte[requestSize];
+    Arrays.fill(body, (byte) 'a');
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+        requestSize > 0 ? HttpMethod.POST : HttpMethod.GET, "/payload", Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(body)));
+    request.headers()
+        .set(HttpHeaderNames.HOST, address.getHostString() + ":" + address.getPort())
+        .set(HttpHeaderNames.CONTENT_LENGTH, requestSize)
+        .set(HttpHeaderNames.CONNECTION, keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+    return request;
+  }
+
+  private static void report(Histogram histogram, long elapsedNanos, long errors, long allocatedBytes) {
+    long requests = histogram.getTotalCount();
+    double seconds = elapsedNanos / 1e9;
+    System.out.printf(Locale.ROOT, "Requests: %d in %.2f s, throughput: %.0f req/s, errors: %d%n",
+        requests, seconds, requests / seconds, errors);
+    System.out.printf(Locale.ROOT, "Latency (ms): p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+        millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMaxValue()));
+    if (allocatedBytes < 0) {
+      System.out.println("Server allocation: not supported by this JVM");
+    } else if (requests > 0) {
+      System.out.printf(Locale.ROOT, "Server allocation: %d B/request%n", allocatedBytes / requests);
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static long[] serverThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().startsWith(SERVER_THREAD_PREFIX))
+        .mapToLong(Thread::getId)
+        .toArray();
+  }
+
+  /**
+   * @return bytes allocated by the threads; or -1 if the JVM does not count allocated bytes.
+   */
+  private static long allocatedBytes(long[] threads) {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+    if (!allocationCounter.isThreadAllocatedMemorySupported() || !allocationCounter.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long total = 0;
+    for (long allocated : allocationCounter.getThreadAllocatedBytes(threads)) {
+      total += Math.max(allocated, 0);
+    }
+    return total;
+  }
+
+  private int intOption(String name, int defaultValue) {
+    String value = options.get(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+}
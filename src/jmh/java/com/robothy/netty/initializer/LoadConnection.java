@@ -0,0 +1,195 @@
+package com.robothy.netty.initializer;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Drives one client connection of the load test. All methods run on the event loop of the connection.
+ *
+ * <p>With a target rate, requests are scheduled at fixed intended times and the latency is measured
+ * from the intended time, so a stalled server is charged for the requests it delayed
+ * (coordinated omission). Without a target rate, the connection keeps {@code depth} requests in flight.
+ *
+ * <p>The handler is reused when the connection is re-established after the server closed it.
+ */
+@ChannelHandler.Sharable
+final class LoadConnection extends ChannelInboundHandlerAdapter {
+
+  private static final long MAX_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Bootstrap bootstrap;
+
+  private final FullHttpRequest request;
+
+  private final int depth;
+
+  private final boolean keepAlive;
+
+  /**
+   * Nanoseconds between intended request times; 0 to send requests back to back.
+   */
+  private final long intervalNanos;
+
+  private final Recorder recorder;
+
+  private final LongAdder errors;
+
+  /**
+   * Intended times of requests waiting for a free slot.
+   */
+  private final ArrayDeque<Long> pending = new ArrayDeque<>();
+
+  /**
+   * Intended times of sent requests, in order.
+   */
+  private final ArrayDeque<Long> inFlight = new ArrayDeque<>();
+
+  private long nextIntended;
+
+  private Channel channel;
+
+  private ScheduledFuture<?> ticker;
+
+  private volatile boolean running = true;
+
+  LoadConnection(Bootstrap bootstrap, FullHttpRequest request, int depth, boolean keepAlive, long intervalNanos,
+                 Recorder recorder, LongAdder errors) {
+    this.bootstrap = bootstrap;
+    this.request = request;
+    this.depth = keepAlive ? depth : 1;
+    this.keepAlive = keepAlive;
+    this.intervalNanos = intervalNanos;
+    this.recorder = recorder;
+    this.errors = errors;
+  }
+
+  ChannelFuture connect() {
+    return bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+      @Override
+      protected void initChannel(SocketChannel ch) {
+        ch.pipeline().addLast(new HttpClientCodec(), LoadConnection.this);
+      }
+    }).connect();
+  }
+
+  void stop() {
+    running = false;
+    Channel ch = channel;
+    if (ch != null) {
+      ch.eventLoop().execute(() -> {
+        if (ticker != null) {
+          ticker.cancel(false);
+        }
+        ch.close();
+      });
+    }
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    channel = ctx.channel();
+    if (intervalNanos > 0) {
+      if (nextIntended == 0) {
+        nextIntended = System.nanoTime();
+      }
+      long period = Math.min(intervalNanos, MAX_TICK_NANOS);
+      ticker = ctx.executor().scheduleAtFixedRate(this::tick, 0, period, TimeUnit.NANOSECONDS);
+    }
+    send();
+    ctx.fireChannelActive();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    try {
+      if (msg instanceof HttpResponse && ((HttpResponse) msg).status().code() >= 400) {
+        errors.increment();
+      }
+      if (msg instanceof LastHttpContent) {
+        Long intended = inFlight.poll();
+        if (intended != null) {
+          long latency = System.nanoTime() - intended;
+          recorder.recordValue(Math.min(latency, HttpServerLoadTest.MAX_LATENCY_NANOS));
+        }
+        if (keepAlive) {
+          send();
+        } else {
+          ctx.close();
+        }
+      }
+    } finally {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    if (ticker != null) {
+      ticker.cancel(false);
+    }
+    // Requests lost with the connection are retried with their original intended times.
+    while (!inFlight.isEmpty()) {
+      pending.addFirst(inFlight.pollLast());
+    }
+    if (running) {
+      connect();
+    }
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    errors.increment();
+    ctx.close();
+  }
+
+  private void tick() {
+    long now = System.nanoTime();
+    while (nextIntended <= now) {
+      pending.add(nextIntended);
+      nextIntended += intervalNanos;
+    }
+    send();
+  }
+
+  private void send() {
+    Channel ch = channel;
+    if (!running || ch == null || !ch.isActive()) {
+      return;
+    }
+
+    boolean written = false;
+    while (inFlight.size() < depth) {
+      Long intended;
+      if (intervalNanos > 0) {
+        if ((intended = pending.poll()) == null) {
+          break;
+        }
+      } else {
+        intended = System.nanoTime();
+      }
+      inFlight.add(intended);
+      ch.write(request.retainedDuplicate(), ch.voidPromise());
+      written = true;
+    }
+    if (written) {
+      ch.flush();
+    }
+  }
+
+}
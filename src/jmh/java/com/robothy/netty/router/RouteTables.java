@@ -0,0 +1,75 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequestHandler;
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Route tables shaped like a REST API for benchmarks.
+ */
+final class RouteTables {
+
+  static final String VERSION_HEADER = "accept-version";
+
+  static final int VARIANTS = 8;
+
+  private RouteTables() {
+
+  }
+
+  /**
+   * Register the routes of the benchmarked scenarios and {@code size} generated routes.
+   *
+   * <p>Generated routes come in groups of five per resource:
+   * <pre>
+   *   GET    /api/r{n}
+   *   GET    /api/r{n}/{id}
+   *   PUT    /api/r{n}/{id}
+   *   DELETE /api/r{n}/{id}
+   *   GET    /api/r{n}/{id}/items/{item}
+   * </pre>
+   */
+  static void populate(Router router, int size, HttpRequestHandler handler) {
+    router.route(HttpMethod.GET, "/api/status", handler)
+        .route(HttpMethod.GET, "/api/orgs/{org}/repos/{repo}/branches/{branch}/commits/{sha}/files", handler);
+
+    for (int i = 1; i <= VARIANTS; i++) {
+      String version = String.valueOf(i);
+      router.route(Route.builder()
+          .method(HttpMethod.GET)
+          .path("/api/versioned/{id}")
+          .header(VERSION_HEADER, version)
+          .handler(handler)
+          .build());
+      router.route(Route.builder()
+          .method(HttpMethod.GET)
+          .path("/api/matched/{id}")
+          .headerMatcher(headers -> version.equals(headers.get(VERSION_HEADER)))
+          .handler(handler)
+          .build());
+    }
+    router.route(HttpMethod.GET, "/api/versioned/{id}", handler)
+        .route(HttpMethod.GET, "/api/matched/{id}", handler);
+
+    for (int n = 0, count = 0; count < size; n++) {
+      String resource = "/api/r" + n;
+      String[][] routes = {
+          {"GET", resource},
+          {"GET", resource + "/{id}"},
+          {"PUT", resource + "/{id}"},
+          {"DELETE", resource + "/{id}"},
+          {"GET", resource + "/{id}/items/{item}"}
+      };
+      for (int i = 0; i < routes.length && count < size; i++, count++) {
+        router.route(HttpMethod.valueOf(routes[i][0]), routes[i][1], handler);
+      }
+    }
+  }
+
+  /**
+   * @return a generated resource in the middle of the route table.
+   */
+  static String middleResource(int size) {
+    return "/api/r" + Math.max(0, size / 5 / 2);
+  }
+
+}
@@ -0,0 +1,128 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpRequestHandler;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link Router#match(HttpRequest)}. Run with {@code -prof gc} to see the allocation
+ * per match, {@link #baseline()} measures the allocation of creating the request alone.
+ *
+ * <p>Every invocation matches a new request, because matching adds path variables to the
+ * request parameters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouterBenchmark {
+
+  private static final HttpRequestHandler HANDLER = (request, response) -> {};
+
+  @Param({"default", "spring"})
+  private String router;
+
+  /**
+   * Number of generated routes besides the routes of the benchmarked scenarios.
+   */
+  @Param({"10", "1000", "10000"})
+  private int routes;
+
+  /**
+   * Maximum size of the route cache; 0 disables the cache.
+   */
+  @Param({"0"})
+  private int routeCache;
+
+  private Router target;
+
+  private String literalPath;
+
+  private String parameterPath;
+
+  private Map<CharSequence, String> versionHeaders;
+
+  @Setup
+  public void setup() {
+    target = "spring".equals(router) ? new SpringWebRouter() : new DefaultRouter();
+    RouteTables.populate(target, routes, HANDLER);
+    if (routeCache > 0) {
+      target.routeCache(routeCache);
+    }
+    target.freeze();
+
+    String resource = RouteTables.middleResource(routes);
+    literalPath = routes > 0 ? resource : "/api/status";
+    parameterPath = routes >= 5 ? resource + "/42/items/7" : "/api/versioned/42";
+    // The last registered variant.
+    versionHeaders = Collections.singletonMap(RouteTables.VERSION_HEADER, String.valueOf(RouteTables.VARIANTS));
+  }
+
+  @Benchmark
+  public HttpRequest baseline() {
+    return request(HttpMethod.GET, parameterPath, Collections.emptyMap());
+  }
+
+  @Benchmark
+  public HttpRequestHandler literal() {
+    return target.match(request(HttpMethod.GET, literalPath, Collections.emptyMap()));
+  }
+
+  @Benchmark
+  public HttpRequestHandler parameters() {
+    return target.match(request(HttpMethod.GET, parameterPath, Collections.emptyMap()));
+  }
+
+  @Benchmark
+  public HttpRequestHandler deep() {
+    return target.match(request(HttpMethod.GET,
+        "/api/orgs/netty/repos/router/branches/main/commits/3f2a9c1/files", Collections.emptyMap()));
+  }
+
+  @Benchmark
+  public HttpRequestHandler headerConditions() {
+    return target.match(request(HttpMethod.GET, "/api/versioned/42", versionHeaders));
+  }
+
+  @Benchmark
+  public HttpRequestHandler headerMatchers() {
+    return target.match(request(HttpMethod.GET, "/api/matched/42", versionHeaders));
+  }
+
+  @Benchmark
+  public HttpRequestHandler staticResource() {
+    return target.match(request(HttpMethod.GET, "/assets/app.js", Collections.emptyMap()));
+  }
+
+  @Benchmark
+  public HttpRequestHandler notFound() {
+    return target.match(request(HttpMethod.GET, "/missing/page", Collections.emptyMap()));
+  }
+
+  private static HttpRequest request(HttpMethod method, String path, Map<CharSequence, String> headers) {
+    return HttpRequest.builder()
+        .method(method)
+        .path(path)
+        .headers(headers)
+        .params(new HashMap<>())
+        .build();
+  }
+
+}
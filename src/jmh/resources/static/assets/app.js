@@ -0,0 +1 @@
+console.log("netty-http-router benchmark");
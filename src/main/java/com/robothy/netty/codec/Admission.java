@@ -0,0 +1,76 @@
+package com.robothy.netty.codec;
+
+import com.robothy.netty.router.ConcurrencyLimiter;
+
+/**
+ * The slots a request holds in the concurrency limiters of the router and of its route, from its head until
+ * its response is written. The latency fed back to the limiters runs from the dispatch of the handler, so that
+ * the upload of the body and the wait behind pipelined requests don't count as server latency.
+ */
+final class Admission {
+
+  private final ConcurrencyLimiter global;
+
+  private final ConcurrencyLimiter route;
+
+  private long startNanos = System.nanoTime();
+
+  private boolean released;
+
+  private Admission(ConcurrencyLimiter global, ConcurrencyLimiter route) {
+    this.global = global;
+    this.route = route;
+  }
+
+  /**
+   * @return the limiter that rejected the request; or {@code null} if the request is admitted.
+   */
+  static ConcurrencyLimiter rejectedBy(ConcurrencyLimiter global, ConcurrencyLimiter route) {
+    if (global != null && !global.tryAcquire()) {
+      return global;
+    }
+    if (route != null && !route.tryAcquire()) {
+      if (global != null) {
+        global.cancel();
+      }
+      return route;
+    }
+    return null;
+  }
+
+  /**
+   * Wrap the slots {@link #rejectedBy} took for an admitted request.
+   *
+   * @return the admission; or {@code null} if there is no limiter.
+   */
+  static Admission admitted(ConcurrencyLimiter global, ConcurrencyLimiter route) {
+    return global == null && route == null ? null : new Admission(global, route);
+  }
+
+  /**
+   * Start the latency clock, when the handler of the request is dispatched.
+   */
+  void dispatched() {
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * Free the slots, the latency since {@link #dispatched()} is sampled once. Later calls do nothing.
+   *
+   * @param dropped whether the response could not be written.
+   */
+  void release(boolean dropped) {
+    if (released) {
+      return;
+    }
+    released = true;
+    long latencyNanos = System.nanoTime() - startNanos;
+    if (global != null) {
+      global.release(latencyNanos, dropped);
+    }
+    if (route != null) {
+      route.release(latencyNanos, dropped);
+    }
+  }
+
+}
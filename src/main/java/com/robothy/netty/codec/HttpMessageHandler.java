@@ -1,6 +1,8 @@
 package com.robothy.netty.codec;
 
 
+import com.robothy.netty.http.AsyncRequestHandler;
+import com.robothy.netty.http.ExecutionPolicy;
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
 import com.robothy.netty.http.HttpResponse;
@@ -10,23 +12,134 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class HttpMessageHandler extends SimpleChannelInboundHandler<HttpRequest> {
+public class HttpMessageHandler extends ChannelInboundHandlerAdapter {
 
   private final Router router;
 
+  /**
+   * Requests received while {@link #pipeliningDepth} responses are pending, handled in order once earlier
+   * responses are written. The channel stops reading while requests wait here, so the queue holds little more
+   * than what was read at once.
+   */
+  private final Queue<RoutedRequest> pending = new ArrayDeque<>();
+
+  /**
+   * The reorder buffer: requests dispatched and not answered yet, in the order they were received. Responses
+   * are written from its head, a response completed out of order waits here until the earlier ones are written.
+   */
+  private final Queue<Slot> slots = new ArrayDeque<>();
+
+  /**
+   * Runs synchronous handlers off the thread of the connection; {@code null} to run them inline.
+   */
+  private final Executor handlerExecutor;
+
+  /**
+   * Requests of the connection handled at once.
+   */
+  private final int pipeliningDepth;
+
+  private boolean closed;
+
+  /**
+   * Whether a {@code 500} closes the connection once it is written; requests received after it are dropped.
+   */
+  private boolean closing;
+
   public HttpMessageHandler(Router router) {
+    this(router, null);
+  }
+
+  /**
+   * @param router routes requests.
+   * @param handlerExecutor runs each invocation of a synchronous handler unless its route is
+   *     {@link ExecutionPolicy#NON_BLOCKING}, the response is written on the thread of the connection once
+   *     the handler returns. {@code null} to run handlers on the thread of the connection.
+   */
+  public HttpMessageHandler(Router router, Executor handlerExecutor) {
+    this(router, handlerExecutor, 1);
+  }
+
+  /**
+   * @param router routes requests.
+   * @param handlerExecutor runs each invocation of a synchronous handler unless its route is
+   *     {@link ExecutionPolicy#NON_BLOCKING}. {@code null} to run handlers on the thread of the connection.
+   * @param pipeliningDepth requests pipelined on the connection that are handled at once, their responses are
+   *     written in the order of the requests. {@code 1} handles a request once the previous response is written.
+   *     Synchronous handlers run concurrently only on a {@code handlerExecutor} with several threads.
+   */
+  public HttpMessageHandler(Router router, Executor handlerExecutor, int pipeliningDepth) {
+    if (pipeliningDepth < 1) {
+      throw new IllegalArgumentException("The pipelining depth must be at least 1.");
+    }
     this.router = router;
+    this.handlerExecutor = handlerExecutor;
+    this.pipeliningDepth = pipeliningDepth;
   }
 
   @Override
-  protected void channelRead0(ChannelHandlerContext ctx, HttpRequest request) throws Exception {
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    RoutedRequest routed;
+    if (msg instanceof RoutedRequest) {
+      routed = (RoutedRequest) msg;
+    } else if (msg instanceof HttpRequest) {
+      routed = new RoutedRequest((HttpRequest) msg, router.matchNonBlocking((HttpRequest) msg));
+    } else {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+
+    if (closing) {
+      if (routed.admission() != null) {
+        routed.admission().release(true);
+      }
+      routed.request().release();
+      return;
+    }
+    if (!pending.isEmpty() || slots.size() >= pipeliningDepth) {
+      pending.add(routed);
+      ReadSuspension.update(ctx.channel(), ReadSuspension.HANDLER, true);
+      return;
+    }
+    dispatch(ctx, routed);
+  }
+
+  private void dispatch(ChannelHandlerContext ctx, RoutedRequest routed) throws Exception {
+    if (routed.admission() != null) {
+      routed.admission().dispatched();
+    }
+    try {
+      handle(ctx, routed.request(), routed.handler(), routed.admission());
+    } catch (Throwable e) {
+      if (routed.admission() != null) {
+        routed.admission().release(true);
+      }
+      throw e;
+    } finally {
+      routed.request().release();
+    }
+  }
+
+  /**
+   * @param admission released once the response is written; {@code null} if the request is not limited.
+   */
+  private void handle(ChannelHandlerContext ctx, HttpRequest request, HttpRequestHandler routed,
+                      Admission admission) throws Exception {
+    HttpRequestHandler handler = ExecutionPolicy.unwrap(routed);
     if (log.isDebugEnabled()) {
       log.debug("{} {}", request.getMethod(), request.getUri());
       StringBuilder headers = new StringBuilder();
@@ -34,35 +147,192 @@ public class HttpMessageHandler extends SimpleChannelInboundHandler<HttpRequest>
       log.debug(headers.toString());
     }
 
-    HttpRequestHandler handler = router.match(request);
-    HttpResponse response = new HttpResponse();
+    HttpResponse response = new HttpResponse(ctx.alloc());
     if (null == handler) {
       log.warn("No handler for {} {}", request.getMethod(), request.getUri());
       response.write("Not found " + request.getPath())
           .status(HttpResponseStatus.NOT_FOUND)
           .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.TEXT_HTML);
+    } else if (handler instanceof AsyncRequestHandler
+        || (handlerExecutor != null && ExecutionPolicy.of(routed) != ExecutionPolicy.NON_BLOCKING)) {
+      CompletionStage<HttpResponse> stage;
+      try {
+        stage = handler instanceof AsyncRequestHandler
+            ? ((AsyncRequestHandler) handler).handleAsync(request, response)
+            : offload(handler, request, response);
+      } catch (Throwable e) {
+        respond(ctx, request, failed(ctx, request, response, e), admission);
+        return;
+      }
+      Slot slot = new Slot(request.retain(), admission);
+      slots.add(slot);
+      HttpResponse given = response;
+      stage.whenComplete((result, cause) -> {
+        if (ctx.executor().inEventLoop()) {
+          complete(ctx, slot, given, result, cause);
+        } else {
+          ctx.executor().execute(() -> complete(ctx, slot, given, result, cause));
+        }
+      });
+      return;
     } else {
       try {
         handler.handle(request, response);
       } catch (Throwable e) {
-        log.error("Failed to handle " + request.getMethod() + " " + request.getPath(), e);
-        ExceptionHandler<Throwable> exceptionHandler = router.findExceptionHandler(e.getClass());
-        response = new HttpResponse();
-        // Exceptions from exceptionHandler will be handled by exceptionCaught().
-        exceptionHandler.handle(e, request, response);
+        response = failed(ctx, request, response, e);
+      }
+    }
+    respond(ctx, request, response, admission);
+  }
+
+  private CompletionStage<HttpResponse> offload(HttpRequestHandler handler, HttpRequest request,
+                                                HttpResponse response) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        handler.handle(request, response);
+        return response;
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+    }, handlerExecutor);
+  }
+
+  /**
+   * Write the response, or keep it in the reorder buffer until the responses of earlier requests are written.
+   */
+  private void respond(ChannelHandlerContext ctx, HttpRequest request, HttpResponse response, Admission admission) {
+    if (slots.isEmpty()) {
+      write(ctx, request, response, admission);
+      return;
+    }
+    Slot slot = new Slot(request.retain(), admission);
+    slot.done(response);
+    slots.add(slot);
+  }
+
+  /**
+   * Take the response of an {@link AsyncRequestHandler} or an offloaded handler, write the responses that are
+   * ready in request order, then handle the requests received meanwhile.
+   */
+  private void complete(ChannelHandlerContext ctx, Slot slot, HttpResponse response, HttpResponse result,
+                        Throwable cause) {
+    try {
+      if (cause != null) {
+        Throwable e = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        slot.done(failed(ctx, slot.request, response, e));
+      } else if (result == null || result == response) {
+        slot.done(response);
+      } else {
+        response.release();
+        slot.done(result);
+      }
+    } catch (Throwable e) {
+      log.error("Failed to complete " + slot.request.getMethod() + " " + slot.request.getPath(), e);
+      slot.done(serverError(ctx, e));
+    }
+
+    if (closed) {
+      slots.remove(slot);
+      slot.discard();
+      return;
+    }
+
+    Slot head;
+    while ((head = slots.peek()) != null && head.done) {
+      slots.poll();
+      if (head.request == null) {
+        ctx.writeAndFlush(head.response).addListener(ChannelFutureListener.CLOSE);
+        continue;
+      }
+      try {
+        if (head.response != null) {
+          write(ctx, head.request, head.response, head.admission);
+        } else if (head.admission != null) {
+          head.admission.release(true);
+        }
+      } catch (Throwable e) {
+        if (head.admission != null) {
+          head.admission.release(true);
+        }
+        ctx.fireExceptionCaught(e);
+      } finally {
+        head.request.release();
+      }
+    }
+
+    RoutedRequest next;
+    while (!closing && slots.size() < pipeliningDepth && (next = pending.poll()) != null) {
+      try {
+        dispatch(ctx, next);
+      } catch (Throwable e) {
+        ctx.fireExceptionCaught(e);
       }
     }
+    if (pending.isEmpty()) {
+      ReadSuspension.update(ctx.channel(), ReadSuspension.HANDLER, false);
+    }
+  }
+
+  /**
+   * Release the response of a failed handler and let the exception handler of the router fill in a new one.
+   * If the exception handler fails too, the request is answered with a {@link #serverError} in its turn.
+   */
+  private HttpResponse failed(ChannelHandlerContext ctx, HttpRequest request, HttpResponse response, Throwable e) {
+    log.error("Failed to handle " + request.getMethod() + " " + request.getPath(), e);
+    ExceptionHandler<Throwable> exceptionHandler = router.findExceptionHandler(e.getClass());
+    response.release();
+    HttpResponse failure = new HttpResponse(ctx.alloc());
+    try {
+      exceptionHandler.handle(e, request, failure);
+    } catch (Throwable handlerException) {
+      log.error("Failed to handle the exception of " + request.getMethod() + " " + request.getPath(),
+          handlerException);
+      failure.release();
+      return serverError(ctx, handlerException);
+    }
+    return failure;
+  }
+
+  /**
+   * A {@code 500 Internal Server Error} that closes the connection once it is written. Requests received after
+   * it are dropped.
+   */
+  private HttpResponse serverError(ChannelHandlerContext ctx, Throwable cause) {
+    closing = true;
+    HttpResponse response = new HttpResponse(ctx.alloc());
+    response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
+        .write("<h1>Internal Server Error.</h1>")
+        .write(cause.getMessage())
+        .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.TEXT_HTML)
+        .putHeader(HttpHeaderNames.CONNECTION.toString(), HttpHeaderValues.CLOSE)
+        .putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), response.getBody().readableBytes());
+    return response;
+  }
 
+  private void write(ChannelHandlerContext ctx, HttpRequest request, HttpResponse response, Admission admission) {
     if (null == response.getStatus()) {
       response.status(HttpResponseStatus.OK);
     }
 
-    boolean keepAlive = request.getHttpVersion().isKeepAliveDefault() ||
-        HttpHeaderValues.KEEP_ALIVE.contentEquals(request.header(HttpHeaderNames.CONNECTION.toString()).orElse(null));
+    boolean keepAlive = !HttpHeaderValues.CLOSE.contentEqualsIgnoreCase(
+        response.getHeaders().get(HttpHeaderNames.CONNECTION.toString()))
+        && (request.getHttpVersion().isKeepAliveDefault()
+        || HttpHeaderValues.KEEP_ALIVE.contentEquals(request.header(HttpHeaderNames.CONNECTION.toString()).orElse(null)));
     response.putHeader(HttpHeaderNames.CONNECTION.toString(), keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
-    response.getHeaders().putIfAbsent(HttpHeaderNames.CONTENT_LENGTH.toString(),
-        String.valueOf(response.getBody().readableBytes()));
+    long contentLength = response.contentLength();
+    if (!HttpResponseStatus.NOT_MODIFIED.equals(response.getStatus()) && contentLength >= 0) {
+      // A 304 response has no body, the length would describe the body it stands for.
+      // A streamed body of unknown length is sent in chunks.
+      response.getHeaders().putIfAbsent(HttpHeaderNames.CONTENT_LENGTH.toString(), String.valueOf(contentLength));
+    }
+    if (HttpMethod.HEAD.equals(request.getMethod())) {
+      // Send headers of the response without the body.
+      response.clearBody();
+    }
     ChannelFuture channelFuture = ctx.writeAndFlush(response);
+    if (admission != null) {
+      channelFuture.addListener(future -> admission.release(!future.isSuccess()));
+    }
     if (!keepAlive) {
       channelFuture.addListener(ChannelFutureListener.CLOSE);
     }
@@ -79,14 +349,18 @@ public class HttpMessageHandler extends SimpleChannelInboundHandler<HttpRequest>
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     log.error("Caught exception.", cause);
-    HttpResponse response = new HttpResponse();
-    response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR)
-        .write("<h1>Internal Server Error.</h1>")
-        .write(cause.getMessage())
-        .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.TEXT_HTML)
-        .putHeader(HttpHeaderNames.CONNECTION.toString(), HttpHeaderValues.CLOSE)
-        .putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), response.getBody().readableBytes());
-    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    if (closed) {
+      return;
+    }
+    HttpResponse response = serverError(ctx, cause);
+    if (slots.isEmpty()) {
+      ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+      return;
+    }
+    // After the responses of the requests handled so far, so that it doesn't answer one of them.
+    Slot slot = new Slot(null, null);
+    slot.done(response);
+    slots.add(slot);
   }
 
   @Override
@@ -98,5 +372,62 @@ public class HttpMessageHandler extends SimpleChannelInboundHandler<HttpRequest>
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
     Channel ch = ctx.channel();
     log.info("Channel " + ch.id() + " inactive.");
+    closed = true;
+    RoutedRequest routed;
+    while ((routed = pending.poll()) != null) {
+      if (routed.admission() != null) {
+        routed.admission().release(true);
+      }
+      routed.request().release();
+    }
+    // Responses still being handled are discarded once they complete.
+    slots.removeIf(slot -> {
+      if (slot.done) {
+        slot.discard();
+      }
+      return slot.done;
+    });
+  }
+
+  /**
+   * A dispatched request in the reorder buffer, retained until its response is written. A slot without request
+   * holds a {@link #serverError} that isn't the response to any request.
+   */
+  private static final class Slot {
+
+    private final HttpRequest request;
+
+    private final Admission admission;
+
+    private HttpResponse response;
+
+    private boolean done;
+
+    private Slot(HttpRequest request, Admission admission) {
+      this.request = request;
+      this.admission = admission;
+    }
+
+    /**
+     * @param response the response to write; {@code null} if there is nothing to write.
+     */
+    private void done(HttpResponse response) {
+      this.response = response;
+      this.done = true;
+    }
+
+    private void discard() {
+      if (response != null) {
+        response.release();
+      }
+      if (admission != null) {
+        admission.release(true);
+      }
+      if (request != null) {
+        request.release();
+      }
+    }
+
   }
+
 }
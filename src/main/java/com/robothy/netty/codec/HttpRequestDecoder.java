@@ -1,8 +1,15 @@
 package com.robothy.netty.codec;
 
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequestHandler;
+import com.robothy.netty.http.RequestBodyStream;
+import com.robothy.netty.http.StreamingRequestHandler;
+import com.robothy.netty.router.ConcurrencyLimiter;
+import com.robothy.netty.router.Router;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
@@ -12,58 +19,792 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
-import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.util.ReferenceCountUtil;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Executor;
 
+/**
+ * Decode Netty HTTP objects into {@linkplain com.robothy.netty.http.HttpRequest requests}.
+ *
+ * <p>Without a router, the body of each request is aggregated and the request is routed by
+ * {@link HttpMessageHandler}. With a router, requests are routed on their heads: the body of a request
+ * routed to a {@link StreamingRequestHandler} is passed to the handler chunk by chunk, and the channel
+ * stops reading until the handler asks for more.
+ *
+ * <p>Aggregated bodies are bounded by {@link RequestBodyOptions}. A body over the limits is rejected with
+ * {@code 413 Payload Too Large} and the connection is closed, or it is spilled to a temporary file.
+ *
+ * <p>With a handler executor, the streaming callbacks of routes that are not
+ * {@link ExecutionPolicy#NON_BLOCKING} and the file I/O of spilled bodies run on the handler executor, one
+ * task of the channel at a time in the order they are submitted, and decoding waits for their results.
+ */
 public class HttpRequestDecoder extends MessageToMessageDecoder<HttpObject> {
 
-  private com.robothy.netty.http.HttpRequest.HttpRequestBuilder builder;
+  private final Router router;
+
+  private final RequestBodyOptions options;
+
+  private com.robothy.netty.http.HttpRequest request;
+
+  private HttpRequestHandler handler;
 
   private CompositeByteBuf body;
 
+  /**
+   * Bytes of the body received so far.
+   */
+  private long received;
+
+  /**
+   * Bytes of the body reserved from the in-flight limit.
+   */
+  private long reserved;
+
+  /**
+   * Runs streaming callbacks of blocking routes and the file I/O of spilled bodies in order; {@code null} to run
+   * them on the event loop.
+   */
+  private final Executor blockingExecutor;
+
+  /**
+   * The file the body is spilled to; {@code null} if the body is in memory.
+   */
+  private Spill spill;
+
+  /**
+   * Bytes submitted to the spill file but not written yet; reading pauses while they are over the in-memory limit.
+   */
+  private long spillBacklog;
+
+  /**
+   * Messages that arrived while the body of the previous request is mapped on the blocking executor; {@code null}
+   * if none is.
+   */
+  private ArrayDeque<HttpObject> deferred;
+
+  private boolean closed;
+
+  /**
+   * Whether a request was rejected; the connection is closing and further messages are dropped.
+   */
+  private boolean rejected;
+
+  /**
+   * Whether the current request was rejected by a concurrency limiter; its body is dropped as it arrives.
+   */
+  private boolean shedding;
+
+  /**
+   * The slots the current request holds in concurrency limiters; {@code null} if it is not limited.
+   */
+  private Admission admission;
+
+  /**
+   * The body of the current request if it is streamed; {@code null} otherwise.
+   */
+  private BodyStream stream;
+
+  public HttpRequestDecoder() {
+    this(null);
+  }
+
+  /**
+   * @param router routes requests on their heads; or {@code null} to aggregate the body of every request.
+   *     With a router, the decoder must be followed by a {@link HttpMessageHandler}.
+   */
+  public HttpRequestDecoder(Router router) {
+    this(router, RequestBodyOptions.defaults());
+  }
+
+  /**
+   * @param router routes requests on their heads; or {@code null} to aggregate the body of every request.
+   *     With a router, the decoder must be followed by a {@link HttpMessageHandler}.
+   * @param options limits of aggregated bodies.
+   */
+  public HttpRequestDecoder(Router router, RequestBodyOptions options) {
+    this(router, options, null);
+  }
+
+  /**
+   * @param router routes requests on their heads; or {@code null} to aggregate the body of every request.
+   *     With a router, the decoder must be followed by a {@link HttpMessageHandler}.
+   * @param options limits of aggregated bodies.
+   * @param handlerExecutor runs the streaming callbacks of routes that are not {@link ExecutionPolicy#NON_BLOCKING}
+   *     and writes spilled bodies; {@code null} to run them on the thread of the connection.
+   */
+  public HttpRequestDecoder(Router router, RequestBodyOptions options, Executor handlerExecutor) {
+    this.router = router;
+    this.options = options;
+    this.blockingExecutor = handlerExecutor == null ? null : new SerialExecutor(handlerExecutor);
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (deferred != null && msg instanceof HttpObject) {
+      deferred.add((HttpObject) msg);
+      return;
+    }
+    if (stream != null && msg instanceof HttpObject) {
+      stream.offer((HttpObject) msg);
+      return;
+    }
+    super.channelRead(ctx, msg);
+  }
+
   @Override
   protected void decode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
+    if (rejected) {
+      return;
+    }
+    if (shedding) {
+      shedding = !(msg instanceof LastHttpContent);
+      return;
+    }
+
     if (msg instanceof HttpRequest) {
       HttpRequest httpRequest = (HttpRequest) msg;
-      HashMap<CharSequence, String> headers = new HashMap<>();
-      httpRequest.headers().forEach(header -> headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue()));
       this.body = Unpooled.compositeBuffer();
-      QueryStringDecoder queryStringDecoder = new QueryStringDecoder(httpRequest.uri());
-
-      this.builder = com.robothy.netty.http.HttpRequest.builder()
+      this.request = com.robothy.netty.http.HttpRequest.builder()
           .method(httpRequest.method())
           .uri(httpRequest.uri())
           .httpVersion(httpRequest.protocolVersion())
-          .headers(headers)
+          .httpHeaders(httpRequest.headers())
           .body(body)
-          .path(queryStringDecoder.path())
-          .params(new HashMap<>(queryStringDecoder.parameters()));
+          .build();
+
+      this.handler = router == null ? null : router.matchNonBlocking(request);
+      if (router != null && shed(out)) {
+        return;
+      }
+      HttpRequestHandler target = ExecutionPolicy.unwrap(handler);
+      if (!(target instanceof StreamingRequestHandler)) {
+        long contentLength = HttpUtil.getContentLength(httpRequest, -1L);
+        if (contentLength > maxContentLength()
+            || (contentLength > options.getMaxInMemoryContentLength() && !options.isSpill())) {
+          reject(ctx);
+          return;
+        }
+        if (contentLength > options.getMaxInMemoryContentLength()) {
+          startSpill(ctx);
+        }
+      }
 
       String expect = httpRequest.headers().getAsString(HttpHeaderNames.EXPECT);
       if (HttpHeaderValues.CONTINUE.contentEqualsIgnoreCase(expect)) {
         ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
       }
 
+      if (target instanceof StreamingRequestHandler) {
+        // The body of the request stays empty, the handler gets the content in chunks.
+        boolean blocking = blockingExecutor != null
+            && ExecutionPolicy.of(handler) != ExecutionPolicy.NON_BLOCKING;
+        this.stream = new BodyStream(ctx, request, handler, (StreamingRequestHandler) target, admission, blocking);
+        this.admission = null;
+        this.body = null;
+        this.request = null;
+        this.handler = null;
+        stream.start();
+      }
+
     } else if (msg instanceof HttpContent) {
-      HttpContent httpContent = (HttpContent) msg;
-      ByteBuf content = httpContent.content();
-      ReferenceCountUtil.retain(content);
-      body.addComponent(true, content);
+      ByteBuf content = ((HttpContent) msg).content();
+      int length = content.readableBytes();
+      if (received + length > maxContentLength()) {
+        reject(ctx);
+        return;
+      }
+      if (spill == null && length > 0 && (received + length > options.getMaxInMemoryContentLength()
+          || !options.reserve(length))) {
+        if (!options.isSpill()) {
+          reject(ctx);
+          return;
+        }
+        startSpill(ctx);
+      }
+
+      if (spill != null) {
+        if (length > 0) {
+          Spill spill = this.spill;
+          ByteBuf retained = content.retain();
+          spillIo(ctx, length, () -> {
+            try {
+              spill.write(retained);
+            } finally {
+              retained.release();
+            }
+          });
+        }
+      } else if (length > 0) {
+        reserved += length;
+        body.addComponent(true, content.retain());
+      }
+      received += length;
+
       if (msg instanceof LastHttpContent) {
-        com.robothy.netty.http.HttpRequest request = builder.build();
-        out.add(request);
+        if (spill != null) {
+          completeSpill(ctx, out);
+          return;
+        }
+        out.add(routed(request, handler, admission));
+        this.admission = null;
+        this.body = null;
+        reset();
       }
     }
   }
 
+  /**
+   * Take slots of the concurrency limiters for the current request. A request over a limit is answered by
+   * the rejection handler of the limiter right away, in order with the responses to earlier requests, and its
+   * body is dropped.
+   *
+   * @return whether the request is rejected.
+   */
+  private boolean shed(List<Object> out) {
+    ConcurrencyLimiter global = router.concurrencyLimiter();
+    ConcurrencyLimiter route = ConcurrencyLimiter.of(handler);
+    ConcurrencyLimiter rejectedBy = Admission.rejectedBy(global, route);
+    if (rejectedBy == null) {
+      admission = Admission.admitted(global, route);
+      return false;
+    }
+    out.add(new RoutedRequest(request, rejectedBy.rejectionHandler()));
+    this.body = null;
+    reset();
+    shedding = true;
+    return true;
+  }
+
+  private long maxContentLength() {
+    return Math.min(options.getMaxContentLength(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Answer {@code 413 Payload Too Large} and close the connection, the rest of the body is not read.
+   */
+  private void reject(ChannelHandlerContext ctx) {
+    discard();
+    rejected = true;
+    DefaultFullHttpResponse response =
+        new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    response.headers()
+        .set(HttpHeaderNames.CONTENT_LENGTH, 0)
+        .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private static Object routed(com.robothy.netty.http.HttpRequest request, HttpRequestHandler handler,
+                               Admission admission) {
+    return handler == null && admission == null ? request : new RoutedRequest(request, handler, admission);
+  }
+
+  /**
+   * Move the body received so far to a temporary file, and write the rest of the body there.
+   */
+  private void startSpill(ChannelHandlerContext ctx) throws Exception {
+    Spill spill = this.spill = new Spill();
+    List<ByteBuf> parts = body.decompose(body.readerIndex(), body.readableBytes());
+    parts.forEach(ByteBuf::retain);
+    body.removeComponents(0, body.numComponents()).clear();
+    ByteBuf moved = Unpooled.wrappedBuffer(parts.toArray(new ByteBuf[0]));
+    options.release(reserved);
+    reserved = 0;
+    spillIo(ctx, moved.readableBytes(), () -> {
+      try {
+        spill.write(moved);
+      } finally {
+        moved.release();
+      }
+    });
+  }
+
+  /**
+   * Map the spill file as the body and pass the request on. On the blocking executor, the request is passed on
+   * once the body is mapped, and messages that arrive meanwhile wait in {@link #deferred}.
+   */
+  private void completeSpill(ChannelHandlerContext ctx, List<Object> out) throws Exception {
+    Spill spill = this.spill;
+    long length = received;
+    if (blockingExecutor == null) {
+      // The file is deleted once the body is released.
+      body.addComponent(true, spill.map(length));
+      this.spill = null;
+      out.add(routed(request, handler, admission));
+      this.admission = null;
+      this.body = null;
+      reset();
+      return;
+    }
+
+    CompositeByteBuf body = this.body;
+    Object routed = routed(request, handler, admission);
+    Admission admission = this.admission;
+    this.spill = null;
+    this.admission = null;
+    this.body = null;
+    reset();
+    deferred = new ArrayDeque<>();
+    updateAutoRead(ctx);
+    blockingExecutor.execute(() -> {
+      MappedBody mapped = null;
+      Throwable cause = null;
+      try {
+        mapped = spill.map(length);
+      } catch (Throwable e) {
+        spill.close();
+        cause = e;
+      }
+      MappedBody result = mapped;
+      Throwable failure = cause;
+      ctx.executor().execute(() -> spilled(ctx, routed, body, admission, result, failure));
+    });
+  }
+
+  /**
+   * Pass on a request whose body has been mapped on the blocking executor, then decode the deferred messages.
+   */
+  private void spilled(ChannelHandlerContext ctx, Object routed, CompositeByteBuf body, Admission admission,
+                       MappedBody mapped, Throwable cause) {
+    ArrayDeque<HttpObject> queued = deferred;
+    deferred = null;
+    if (cause != null || closed) {
+      if (mapped != null) {
+        mapped.release();
+      }
+      body.release();
+      if (admission != null) {
+        admission.release(true);
+      }
+      queued.forEach(ReferenceCountUtil::release);
+      if (cause != null) {
+        rejected = true;
+        close(ctx, cause);
+      }
+      return;
+    }
+
+    body.addComponent(true, mapped);
+    ctx.fireChannelRead(routed);
+    try {
+      HttpObject next;
+      while ((next = queued.poll()) != null) {
+        channelRead(ctx, next);
+      }
+    } catch (Exception e) {
+      ctx.fireExceptionCaught(e);
+    }
+    updateAutoRead(ctx);
+  }
+
+  /**
+   * Run file I/O of the spilled body, in order, on the blocking executor; or right away without one. Reading
+   * pauses while the bytes waiting to be written are over the in-memory limit. A failure closes the connection.
+   */
+  private void spillIo(ChannelHandlerContext ctx, long bytes, SpillTask task) throws Exception {
+    if (blockingExecutor == null) {
+      task.run();
+      return;
+    }
+    Spill spill = this.spill;
+    spillBacklog += bytes;
+    updateAutoRead(ctx);
+    blockingExecutor.execute(() -> {
+      Throwable cause = null;
+      try {
+        task.run();
+      } catch (Throwable e) {
+        cause = e;
+      }
+      Throwable failure = cause;
+      ctx.executor().execute(() -> {
+        spillBacklog -= bytes;
+        if (failure != null && this.spill == spill) {
+          discard();
+          rejected = true;
+          close(ctx, failure);
+          return;
+        }
+        updateAutoRead(ctx);
+      });
+    });
+  }
+
+  /**
+   * Read on while no streaming handler, spill write or deferred request holds the connection back, and no other
+   * handler of the channel holds it back either, see {@link ReadSuspension}.
+   */
+  private void updateAutoRead(ChannelHandlerContext ctx) {
+    ReadSuspension.update(ctx.channel(), ReadSuspension.DECODER, stream != null || deferred != null
+        || spillBacklog > options.getMaxInMemoryContentLength());
+  }
+
+  /**
+   * Close the spill file, and delete it; on the blocking executor after the pending writes.
+   */
+  private void closeSpill() {
+    if (spill == null) {
+      return;
+    }
+    Spill spill = this.spill;
+    this.spill = null;
+    if (blockingExecutor == null) {
+      spill.close();
+    } else {
+      blockingExecutor.execute(spill::close);
+    }
+  }
+
+  /**
+   * Drop the request being aggregated.
+   */
+  private void discard() {
+    if (admission != null) {
+      admission.release(true);
+      admission = null;
+    }
+    if (body != null) {
+      body.release();
+      body = null;
+    }
+    closeSpill();
+    reset();
+  }
+
+  private void reset() {
+    options.release(reserved);
+    reserved = 0;
+    received = 0;
+    request = null;
+    handler = null;
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    closed = true;
+    if (stream != null) {
+      stream.abort();
+    }
+    if (deferred != null) {
+      deferred.forEach(ReferenceCountUtil::release);
+      deferred.clear();
+    }
+    discard();
+    super.channelInactive(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+    close(ctx, cause);
+  }
+
+  private static void close(ChannelHandlerContext ctx, Throwable cause) {
     cause.printStackTrace();
     ctx.close();
   }
+
+  private static HttpRequestHandler failed(Throwable cause) {
+    return (request, response) -> {
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+    };
+  }
+
+  @FunctionalInterface
+  private interface SpillTask {
+    void run() throws IOException;
+  }
+
+  /**
+   * The temporary file of a spilled body, opened on the first write. Used on the blocking executor, or on the
+   * event loop without one.
+   */
+  private final class Spill {
+
+    private Path file;
+
+    private FileChannel channel;
+
+    /**
+     * Whether a write failed; the file misses content and must not be mapped.
+     */
+    private boolean broken;
+
+    private void open() throws IOException {
+      if (channel != null) {
+        return;
+      }
+      Path directory = options.getSpillDirectory();
+      file = directory == null
+          ? Files.createTempFile("request-body", ".tmp")
+          : Files.createTempFile(directory, "request-body", ".tmp");
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    void write(ByteBuf content) throws IOException {
+      try {
+        open();
+        for (ByteBuffer buffer : content.nioBuffers()) {
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+      } catch (IOException e) {
+        broken = true;
+        throw e;
+      }
+    }
+
+    /**
+     * Map the file as a body, which deletes the file once it is released, and close the channel.
+     */
+    MappedBody map(long length) throws IOException {
+      if (broken) {
+        throw new IOException("Failed to spill the request body.");
+      }
+      open();
+      MappedBody body = MappedBody.map(channel, file, length);
+      file = null;
+      close();
+      return body;
+    }
+
+    /**
+     * Close the file, and delete it unless a {@link MappedBody} took it over.
+     */
+    void close() {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          // The file is deleted anyway.
+        }
+      }
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          file.toFile().deleteOnExit();
+        }
+      }
+      channel = null;
+      file = null;
+    }
+
+  }
+
+  /**
+   * Passes chunks of a request body to a streaming handler on demand. Messages that arrive before the
+   * handler asks for them are queued, including messages of the next request; they are decoded after the
+   * body completes. All fields are accessed on the executor of the decoder; the callbacks of a blocking stream
+   * run on the blocking executor, one at a time, and report back to the executor of the decoder.
+   */
+  private class BodyStream implements RequestBodyStream {
+
+    private final ChannelHandlerContext ctx;
+
+    private final com.robothy.netty.http.HttpRequest request;
+
+    /**
+     * The handler the request was routed to, passed on to {@link HttpMessageHandler} with its execution policy.
+     */
+    private final HttpRequestHandler routed;
+
+    private final StreamingRequestHandler handler;
+
+    private final Admission admission;
+
+    /**
+     * Whether the callbacks run on the blocking executor.
+     */
+    private final boolean blocking;
+
+    private final ArrayDeque<HttpObject> queue = new ArrayDeque<>();
+
+    private boolean demand;
+
+    /**
+     * Whether a callback is running, messages are delivered once it returns.
+     */
+    private boolean delivering;
+
+    /**
+     * The exception thrown by the handler; the rest of the body is discarded.
+     */
+    private Throwable failure;
+
+    BodyStream(ChannelHandlerContext ctx, com.robothy.netty.http.HttpRequest request, HttpRequestHandler routed,
+               StreamingRequestHandler handler, Admission admission, boolean blocking) {
+      this.ctx = ctx;
+      this.request = request;
+      this.routed = routed;
+      this.handler = handler;
+      this.admission = admission;
+      this.blocking = blocking;
+    }
+
+    void start() {
+      updateAutoRead(ctx);
+      if (blocking) {
+        delivering = true;
+        blockingExecutor.execute(() -> {
+          Throwable cause = call(() -> handler.onRequest(request, this));
+          ctx.executor().execute(() -> resume(null, cause));
+        });
+        return;
+      }
+      failure = call(() -> handler.onRequest(request, this));
+      deliver();
+    }
+
+    void offer(HttpObject msg) {
+      queue.add(msg);
+      deliver();
+    }
+
+    @Override
+    public void read() {
+      if (!ctx.executor().inEventLoop()) {
+        ctx.executor().execute(this::read);
+        return;
+      }
+      demand = true;
+      deliver();
+    }
+
+    private void deliver() {
+      if (delivering) {
+        // Called by the handler from a callback, delivery goes on once the callback returns.
+        return;
+      }
+      delivering = true;
+      boolean offloaded = false;
+      try {
+        while (stream == this && (demand || failure != null)) {
+          HttpObject msg = queue.poll();
+          if (msg == null) {
+            ctx.read();
+            return;
+          }
+          demand = false;
+          if (failure == null && msg instanceof HttpContent) {
+            ByteBuf content = ((HttpContent) msg).content();
+            if (blocking) {
+              offloaded = true;
+              blockingExecutor.execute(() -> {
+                Throwable cause = call(() -> handler.onContent(request, content, this));
+                ctx.executor().execute(() -> resume(msg, cause));
+              });
+              return;
+            }
+            Throwable cause = call(() -> handler.onContent(request, content, this));
+            if (failure == null) {
+              failure = cause;
+            }
+          }
+          ReferenceCountUtil.release(msg);
+          if (msg instanceof LastHttpContent) {
+            finish();
+          }
+        }
+      } finally {
+        if (!offloaded) {
+          delivering = false;
+        }
+      }
+    }
+
+    /**
+     * Go on after a callback returned on the blocking executor.
+     *
+     * @param msg the message passed to the callback; {@code null} for {@code onRequest()}.
+     */
+    private void resume(HttpObject msg, Throwable cause) {
+      ReferenceCountUtil.release(msg);
+      if (stream != this) {
+        // Aborted meanwhile.
+        return;
+      }
+      if (failure == null) {
+        failure = cause;
+      }
+      delivering = false;
+      if (msg instanceof LastHttpContent) {
+        finish();
+      } else {
+        deliver();
+      }
+    }
+
+    private void finish() {
+      stream = null;
+      ctx.fireChannelRead(new RoutedRequest(request, failure == null ? routed : failed(failure), admission));
+      try {
+        HttpObject next;
+        while ((next = queue.poll()) != null) {
+          channelRead(ctx, next);
+        }
+      } catch (Exception e) {
+        ctx.fireExceptionCaught(e);
+      }
+      if (stream == null) {
+        updateAutoRead(ctx);
+      }
+    }
+
+    void abort() {
+      stream = null;
+      HttpObject msg;
+      while ((msg = queue.poll()) != null) {
+        ReferenceCountUtil.release(msg);
+      }
+      if (admission != null) {
+        admission.release(true);
+      }
+      if (blocking) {
+        // After the callback that may be running.
+        blockingExecutor.execute(this::abortHandler);
+        return;
+      }
+      abortHandler();
+    }
+
+    private void abortHandler() {
+      try {
+        handler.onAbort(request);
+      } finally {
+        request.release();
+      }
+    }
+
+  }
+
+  @FunctionalInterface
+  private interface Callback {
+    void run() throws Exception;
+  }
+
+  /**
+   * @return the exception thrown by {@code callback}; or {@code null}.
+   */
+  private static Throwable call(Callback callback) {
+    try {
+      callback.run();
+      return null;
+    } catch (Throwable e) {
+      return e;
+    }
+  }
+
 }
@@ -1,19 +1,96 @@
 package com.robothy.netty.codec;
 
 import com.robothy.netty.http.HttpResponse;
+import com.robothy.netty.http.ResponseBodyStream;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class HttpResponseEncoder extends MessageToMessageEncoder<HttpResponse> {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
   @Override
   protected void encode(ChannelHandlerContext ctx, HttpResponse msg, List<Object> out) throws Exception {
-    DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, msg.getStatus(), msg.getBody());
+    if (msg.getChunks() != null) {
+      encodeChunks(ctx, msg, out);
+      return;
+    }
+    if (msg.getFile() != null) {
+      encodeFile(ctx, msg, out);
+      return;
+    }
+
+    DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, msg.getStatus(),
+        msg.getBody().retain());
+    HttpHeaders headers = response.headers();
+    msg.getHeaders().forEach(headers::add);
+    out.add(response);
+  }
+
+  /**
+   * Write the head, then let {@link io.netty.handler.stream.ChunkedWriteHandler} pull the body while the
+   * channel is writable. The body is chunked unless the handler set the length.
+   */
+  private void encodeChunks(ChannelHandlerContext ctx, HttpResponse msg, List<Object> out) {
+    if (msg.getChunks() instanceof ResponseBodyStream) {
+      ((ResponseBodyStream) msg.getChunks()).bind(ctx.channel());
+    }
+    DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, msg.getStatus());
     HttpHeaders headers = response.headers();
     msg.getHeaders().forEach(headers::add);
+    if (!headers.contains(HttpHeaderNames.CONTENT_LENGTH)) {
+      HttpUtil.setTransferEncodingChunked(response, true);
+    }
     out.add(response);
+    out.add(new HttpChunkedInput(msg.getChunks()));
+    // The chunked writer closes the input, it is not closed with the response.
+    msg.chunked(null);
+  }
+
+  /**
+   * Write the file body as a {@link DefaultFileRegion}, which is sent with sendfile by the NIO and epoll
+   * transports. Files cannot be sent as regions through TLS, they are read in chunks instead.
+   */
+  private void encodeFile(ChannelHandlerContext ctx, HttpResponse msg, List<Object> out) throws Exception {
+    Path file = msg.getFile();
+    long position = msg.getFilePosition();
+    long length = msg.getFileLength();
+    // Content written besides the file is not sent, release it before opening the file can fail.
+    msg.clearBody();
+    FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, msg.getStatus());
+      HttpHeaders headers = response.headers();
+      msg.getHeaders().forEach(headers::add);
+      if (ctx.pipeline().get(SslHandler.class) == null) {
+        DefaultFileRegion region = new DefaultFileRegion(fileChannel, position, length);
+        out.add(response);
+        out.add(region);
+        out.add(LastHttpContent.EMPTY_LAST_CONTENT);
+      } else {
+        HttpChunkedInput chunks = new HttpChunkedInput(new ChunkedNioFile(fileChannel, position, length,
+            CHUNK_SIZE));
+        out.add(response);
+        out.add(chunks);
+      }
+    } catch (Throwable e) {
+      fileChannel.close();
+      throw e;
+    }
   }
 }
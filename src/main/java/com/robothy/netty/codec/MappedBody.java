@@ -0,0 +1,50 @@
+package com.robothy.netty.codec;
+
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.internal.PlatformDependent;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A request body spilled to a temporary file and mapped into memory. Releasing the last reference, also
+ * through a derived buffer, unmaps the file and deletes it, so the disk space is freed with the request
+ * instead of when the mapping is garbage collected.
+ */
+final class MappedBody extends CompositeByteBuf {
+
+  private final MappedByteBuffer mapping;
+
+  private final Path file;
+
+  private MappedBody(MappedByteBuffer mapping, Path file) {
+    super(UnpooledByteBufAllocator.DEFAULT, true, 1, Unpooled.wrappedBuffer(mapping));
+    this.mapping = mapping;
+    this.file = file;
+  }
+
+  /**
+   * Map the first {@code length} bytes of {@code file}; the channel may be closed once mapped.
+   *
+   * @return the body, it takes over the deletion of {@code file}.
+   */
+  static MappedBody map(FileChannel channel, Path file, long length) throws IOException {
+    return new MappedBody(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), file);
+  }
+
+  @Override
+  protected void deallocate() {
+    super.deallocate();
+    PlatformDependent.freeDirectBuffer(mapping);
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      file.toFile().deleteOnExit();
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+package com.robothy.netty.codec;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * The handlers of a channel that hold its reading back. The channel reads on only while none of them does, so
+ * that a handler done waiting doesn't turn reading back on while another one still needs it off. Used on the
+ * event loop of the channel.
+ */
+final class ReadSuspension {
+
+  /**
+   * {@link HttpRequestDecoder} waits for a streaming handler, a spill write or a spilled body.
+   */
+  static final int DECODER = 1;
+
+  /**
+   * {@link HttpMessageHandler} has requests waiting for earlier responses.
+   */
+  static final int HANDLER = 1 << 1;
+
+  private static final AttributeKey<ReadSuspension> KEY = AttributeKey.valueOf(ReadSuspension.class, "suspension");
+
+  private int holders;
+
+  private ReadSuspension() {
+  }
+
+  /**
+   * Hold reading of {@code channel} back for {@code holder}, or let go of it.
+   *
+   * @param holder {@link #DECODER} or {@link #HANDLER}.
+   */
+  static void update(Channel channel, int holder, boolean suspend) {
+    Attribute<ReadSuspension> attribute = channel.attr(KEY);
+    ReadSuspension suspension = attribute.get();
+    if (suspension == null) {
+      if (!suspend) {
+        return;
+      }
+      attribute.set(suspension = new ReadSuspension());
+    }
+    int holders = suspend ? suspension.holders | holder : suspension.holders & ~holder;
+    if (holders != suspension.holders) {
+      suspension.holders = holders;
+      channel.config().setAutoRead(holders == 0);
+    }
+  }
+
+}
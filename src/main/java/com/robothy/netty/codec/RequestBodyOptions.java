@@ -0,0 +1,92 @@
+package com.robothy.netty.codec;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Limits of aggregated request bodies, see {@link HttpRequestDecoder}. Bodies streamed to a
+ * {@link com.robothy.netty.http.StreamingRequestHandler} are not aggregated and not limited.
+ *
+ * <p>The in-flight limit is shared by all connections whose decoders use the same options.
+ */
+@Getter
+@Builder
+public class RequestBodyOptions {
+
+  /**
+   * Requests with larger bodies are rejected with {@code 413 Payload Too Large}, before the body is read if
+   * the request has a {@code Content-Length}. A body is at most {@link Integer#MAX_VALUE} bytes.
+   */
+  @Builder.Default
+  private long maxContentLength = Integer.MAX_VALUE;
+
+  /**
+   * Bodies larger than this are spilled to a file if {@link #spill} is enabled; otherwise rejected
+   * with {@code 413 Payload Too Large}.
+   */
+  @Builder.Default
+  private long maxInMemoryContentLength = Integer.MAX_VALUE;
+
+  /**
+   * Bytes of incomplete bodies that all connections may hold in memory together. A body that would exceed
+   * it is spilled to a file if {@link #spill} is enabled; otherwise rejected.
+   */
+  @Builder.Default
+  private long maxInFlightContentLength = Long.MAX_VALUE;
+
+  /**
+   * Spill bodies over the in-memory limits to temporary files instead of rejecting them. The handler
+   * reads a spilled body through a memory-mapped buffer.
+   */
+  @Builder.Default
+  private boolean spill = false;
+
+  /**
+   * Directory of spilled bodies; {@code null} for the default temporary-file directory.
+   */
+  private Path spillDirectory;
+
+  /**
+   * Bytes of incomplete bodies held in memory by all connections using these options.
+   */
+  @Getter(AccessLevel.NONE)
+  private final AtomicLong inFlight = new AtomicLong();
+
+  /**
+   * @return options without limits.
+   */
+  public static RequestBodyOptions defaults() {
+    return builder().build();
+  }
+
+  /**
+   * @return bytes of incomplete bodies held in memory by all connections using these options.
+   */
+  public long inFlightContentLength() {
+    return inFlight.get();
+  }
+
+  /**
+   * Reserve {@code bytes} of the in-flight limit.
+   *
+   * @return {@code true} if reserved; {@code false} if the limit would be exceeded.
+   */
+  boolean reserve(long bytes) {
+    long current;
+    do {
+      current = inFlight.get();
+      if (current + bytes > maxInFlightContentLength) {
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + bytes));
+    return true;
+  }
+
+  void release(long bytes) {
+    inFlight.addAndGet(-bytes);
+  }
+
+}
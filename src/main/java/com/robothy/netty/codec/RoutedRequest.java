@@ -0,0 +1,43 @@
+package com.robothy.netty.codec;
+
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpRequestHandler;
+
+/**
+ * A request with the handler it was routed to on its head, passed from {@link HttpRequestDecoder}
+ * to {@link HttpMessageHandler} so that the request is matched only once.
+ */
+final class RoutedRequest {
+
+  private final HttpRequest request;
+
+  private final HttpRequestHandler handler;
+
+  /**
+   * The slots the request holds in concurrency limiters; {@code null} if it is not limited.
+   */
+  private final Admission admission;
+
+  RoutedRequest(HttpRequest request, HttpRequestHandler handler) {
+    this(request, handler, null);
+  }
+
+  RoutedRequest(HttpRequest request, HttpRequestHandler handler, Admission admission) {
+    this.request = request;
+    this.handler = handler;
+    this.admission = admission;
+  }
+
+  HttpRequest request() {
+    return request;
+  }
+
+  HttpRequestHandler handler() {
+    return handler;
+  }
+
+  Admission admission() {
+    return admission;
+  }
+
+}
@@ -0,0 +1,61 @@
+package com.robothy.netty.codec;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs tasks on another executor one at a time, in the order they are submitted, like an executor with
+ * a single thread. The tasks of a channel share one instance, tasks of other channels run in parallel.
+ */
+@Slf4j
+final class SerialExecutor implements Executor {
+
+  private final Executor delegate;
+
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean running = new AtomicBoolean();
+
+  SerialExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    schedule();
+  }
+
+  private void schedule() {
+    if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+      try {
+        delegate.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        running.set(false);
+        throw e;
+      }
+    }
+  }
+
+  private void drain() {
+    try {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Throwable e) {
+          log.error("Failed to run a task of a channel.", e);
+        }
+      }
+    } finally {
+      running.set(false);
+      // A task submitted after the queue looked empty, but before the flag was cleared.
+      schedule();
+    }
+  }
+
+}
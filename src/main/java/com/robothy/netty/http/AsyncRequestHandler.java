@@ -0,0 +1,58 @@
+package com.robothy.netty.http;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A handler that completes the response later, without holding the thread of the connection while it waits
+ * for a database or a downstream service. Register it like any other {@link HttpRequestHandler}, or via
+ * {@link com.robothy.netty.router.Router#routeAsync}.
+ *
+ * <p>The response is written when the returned stage completes, on the executor of the connection. If the
+ * stage completes exceptionally, the exception is handled by the exception handler of the router. Requests
+ * pipelined on the same connection are handled after the response is written, so responses are sent in the
+ * order of the requests.
+ *
+ * <p>The request is retained until the stage completes.
+ */
+@FunctionalInterface
+public interface AsyncRequestHandler extends HttpRequestHandler {
+
+  /**
+   * Start handling the request.
+   *
+   * @param request the request.
+   * @param response the response to fill in.
+   * @return a stage that completes with the response to send, usually {@code response}; {@code null} also
+   *     stands for {@code response}.
+   */
+  CompletionStage<HttpResponse> handleAsync(HttpRequest request, HttpResponse response) throws Exception;
+
+  /**
+   * Handle the request and wait for the stage to complete, for callers that expect a synchronous handler.
+   * If the stage completes with another response, that response is moved into {@code response}.
+   */
+  @Override
+  default void handle(HttpRequest request, HttpResponse response) throws Exception {
+    HttpResponse result;
+    try {
+      result = handleAsync(request, response).toCompletableFuture().get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+    if (result != null && result != response) {
+      response.clearBody().status(result.getStatus());
+      response.getHeaders().putAll(result.getHeaders());
+      response.write(result.getBody().retain());
+      if (result.getFile() != null) {
+        response.file(result.getFile(), result.getFilePosition(), result.getFileLength());
+      }
+      if (result.getChunks() != null) {
+        response.chunked(result.getChunks());
+        result.chunked(null);
+      }
+      result.release();
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.robothy.netty.http;
+
+/**
+ * Where the handler of a route, including the callbacks of a {@link StreamingRequestHandler}, runs when the
+ * server offloads handlers from the event loop, see
+ * {@link com.robothy.netty.router.Route.Builder#executionPolicy(ExecutionPolicy)}. Requests are always
+ * decoded and responses encoded on the event loop. An {@link AsyncRequestHandler} doesn't block and is
+ * always started on the event loop.
+ */
+public enum ExecutionPolicy {
+
+  /**
+   * Run the handler inline on the event loop, saving the round trip to the handler executor. For handlers
+   * that never block, e.g. health checks or handlers that answer from memory.
+   */
+  NON_BLOCKING,
+
+  /**
+   * Run the handler on the handler executor of the server. The default of routes without a policy.
+   */
+  BLOCKING;
+
+  /**
+   * @return {@code handler} tagged with this policy.
+   */
+  public HttpRequestHandler apply(HttpRequestHandler handler) {
+    return new PolicyHandler(unwrap(handler), this);
+  }
+
+  /**
+   * @return the policy {@code handler} is tagged with; {@code null} if it has none.
+   */
+  public static ExecutionPolicy of(HttpRequestHandler handler) {
+    return handler instanceof PolicyHandler ? ((PolicyHandler) handler).policy : null;
+  }
+
+  /**
+   * @return the handler tagged via {@link #apply(HttpRequestHandler)}; or {@code handler} if it is not tagged.
+   */
+  public static HttpRequestHandler unwrap(HttpRequestHandler handler) {
+    return handler instanceof PolicyHandler ? ((PolicyHandler) handler).handler : handler;
+  }
+
+  /**
+   * A handler tagged with a policy. Subclasses tag the handler of a route with more metadata, e.g. the
+   * concurrency limiter of the route.
+   */
+  public static class PolicyHandler implements HttpRequestHandler {
+
+    private final HttpRequestHandler handler;
+
+    private final ExecutionPolicy policy;
+
+    /**
+     * @param handler the tagged handler, not a {@code PolicyHandler}.
+     * @param policy the policy; {@code null} for the default of the server.
+     */
+    protected PolicyHandler(HttpRequestHandler handler, ExecutionPolicy policy) {
+      this.handler = handler;
+      this.policy = policy;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) throws Exception {
+      handler.handle(request, response);
+    }
+
+  }
+
+}
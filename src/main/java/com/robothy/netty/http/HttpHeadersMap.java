@@ -0,0 +1,71 @@
+package com.robothy.netty.http;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Map} view over Netty {@link HttpHeaders}. Lookups are case-insensitive and read the headers
+ * directly; changes are written through. Only {@link #entrySet()} copies the headers, with lower case names.
+ */
+final class HttpHeadersMap extends AbstractMap<CharSequence, String> {
+
+  private final HttpHeaders headers;
+
+  HttpHeadersMap(HttpHeaders headers) {
+    this.headers = headers;
+  }
+
+  @Override
+  public String get(Object key) {
+    return key instanceof CharSequence ? headers.get((CharSequence) key) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof CharSequence && headers.contains((CharSequence) key);
+  }
+
+  @Override
+  public String put(CharSequence key, String value) {
+    String previous = headers.get(key);
+    headers.set(key, value);
+    return previous;
+  }
+
+  @Override
+  public String remove(Object key) {
+    if (!(key instanceof CharSequence)) {
+      return null;
+    }
+    String previous = headers.get((CharSequence) key);
+    headers.remove((CharSequence) key);
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return headers.names().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return headers.isEmpty();
+  }
+
+  @Override
+  public void clear() {
+    headers.clear();
+  }
+
+  @Override
+  public Set<Entry<CharSequence, String>> entrySet() {
+    Map<CharSequence, String> copy = new LinkedHashMap<>();
+    headers.forEach(header -> copy.putIfAbsent(header.getKey().toLowerCase(Locale.ROOT), header.getValue()));
+    return copy.entrySet();
+  }
+
+}
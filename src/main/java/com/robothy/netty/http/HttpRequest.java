@@ -1,36 +1,111 @@
 package com.robothy.netty.http;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.ReferenceCounted;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Getter;
 
+/**
+ * An HTTP request.
+ *
+ * <p>A decoded request is a view over the headers decoded by Netty: header lookups are case-insensitive
+ * and don't copy the headers. The path and the query parameters are decoded from the URI on first access.
+ *
+ * <p>The reference count of a request is the reference count of its body. The server releases the request
+ * after the handler returns, a handler that keeps the body longer must {@linkplain #retain() retain} it.
+ */
 @Getter
-@Builder
-public class HttpRequest {
+public class HttpRequest implements ReferenceCounted {
 
-  @Builder.Default
-  private Map<CharSequence, String> headers = new HashMap<>();
+  private Map<CharSequence, String> headers;
 
-  @Builder.Default
-  private Map<CharSequence, List<String>> params = new HashMap<>();
+  private Map<CharSequence, List<String>> params;
 
   private String path;
 
-  private String uri;
+  private final String uri;
 
-  private HttpMethod method;
+  private final HttpMethod method;
 
-  private ByteBuf body;
+  private final ByteBuf body;
 
-  private HttpVersion httpVersion;
+  private final HttpVersion httpVersion;
+
+  /**
+   * Headers decoded by Netty; {@code null} if the request is built with a headers map.
+   */
+  private final HttpHeaders httpHeaders;
+
+  @Getter(AccessLevel.NONE)
+  private QueryStringDecoder queryStringDecoder;
+
+  /**
+   * @param headers headers keyed by lower case names; or {@code null} to view {@code httpHeaders}.
+   * @param params query parameters; or {@code null} to decode them from {@code uri}.
+   * @param path the path; or {@code null} to decode it from {@code uri}.
+   * @param httpHeaders headers decoded by Netty.
+   */
+  @Builder
+  private HttpRequest(Map<CharSequence, String> headers, Map<CharSequence, List<String>> params, String path,
+                      String uri, HttpMethod method, ByteBuf body, HttpVersion httpVersion, HttpHeaders httpHeaders) {
+    this.headers = headers;
+    this.params = params;
+    this.path = path;
+    this.uri = uri;
+    this.method = method;
+    this.body = body;
+    this.httpVersion = httpVersion;
+    this.httpHeaders = httpHeaders;
+  }
+
+  /**
+   * @return the headers. The map of a decoded request is a view over the Netty headers, its
+   *     lookups are case-insensitive.
+   */
+  public Map<CharSequence, String> getHeaders() {
+    if (headers == null) {
+      headers = httpHeaders == null ? new HashMap<>() : new HttpHeadersMap(httpHeaders);
+    }
+    return headers;
+  }
+
+  /**
+   * @return query parameters and path variables, the query string is decoded on the first call.
+   */
+  public Map<CharSequence, List<String>> getParams() {
+    if (params == null) {
+      params = uri == null ? new HashMap<>() : new HashMap<>(queryStringDecoder().parameters());
+    }
+    return params;
+  }
+
+  /**
+   * @return the decoded path of the URI.
+   */
+  public String getPath() {
+    if (path == null && uri != null) {
+      path = queryStringDecoder().path();
+    }
+    return path;
+  }
+
+  private QueryStringDecoder queryStringDecoder() {
+    if (queryStringDecoder == null) {
+      queryStringDecoder = new QueryStringDecoder(uri);
+    }
+    return queryStringDecoder;
+  }
 
   /**
    * Get the header value by name.
@@ -40,7 +115,10 @@ public class HttpRequest {
    */
   public Optional<String> header(CharSequence name) {
     Objects.requireNonNull(name, "The header name shouldn't be null.");
-    return Optional.ofNullable(headers.get(name.toString().toLowerCase(Locale.ROOT)));
+    if (httpHeaders != null && (headers == null || headers instanceof HttpHeadersMap)) {
+      return Optional.ofNullable(httpHeaders.get(name));
+    }
+    return Optional.ofNullable(getHeaders().get(name.toString().toLowerCase(Locale.ROOT)));
   }
 
   /**
@@ -50,8 +128,9 @@ public class HttpRequest {
    * @return the first value of the parameter.
    */
   public Optional<String> parameter(String name) {
-    if (params.containsKey(name) && params.get(name).size() > 0) {
-      return Optional.ofNullable(params.get(name).get(0));
+    List<String> values = getParams().get(name);
+    if (values != null && values.size() > 0) {
+      return Optional.ofNullable(values.get(0));
     }
     return Optional.empty();
   }
@@ -63,7 +142,54 @@ public class HttpRequest {
    * @return the parameter values.
    */
   public Optional<List<String>> parameters(String name) {
-    return Optional.ofNullable(params.get(name));
+    return Optional.ofNullable(getParams().get(name));
+  }
+
+  @Override
+  public int refCnt() {
+    return body == null ? 1 : body.refCnt();
+  }
+
+  @Override
+  public HttpRequest retain() {
+    if (body != null) {
+      body.retain();
+    }
+    return this;
+  }
+
+  @Override
+  public HttpRequest retain(int increment) {
+    if (body != null) {
+      body.retain(increment);
+    }
+    return this;
+  }
+
+  @Override
+  public HttpRequest touch() {
+    if (body != null) {
+      body.touch();
+    }
+    return this;
+  }
+
+  @Override
+  public HttpRequest touch(Object hint) {
+    if (body != null) {
+      body.touch(hint);
+    }
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return body != null && body.release();
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return body != null && body.release(decrement);
   }
 
 }
@@ -2,6 +2,13 @@ package com.robothy.netty.http;
 
 public interface HttpRequestHandler {
 
+  /**
+   * Handle the request by filling in the response. The request is released after this method returns,
+   * and the response is released once it is written.
+   *
+   * @param request the request.
+   * @param response the response to fill in.
+   */
   void handle(HttpRequest request, HttpResponse response) throws Exception;
 
 }
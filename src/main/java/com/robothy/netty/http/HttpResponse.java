@@ -1,37 +1,247 @@
 package com.robothy.netty.http;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import java.nio.charset.StandardCharsets;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.AbstractReferenceCounted;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import lombok.AccessLevel;
 import lombok.Getter;
 
+/**
+ * An HTTP response. The response owns its body and is released once it is written; a response that is not
+ * written must be {@linkplain #release() released}.
+ */
 @Getter
-public class HttpResponse {
+public class HttpResponse extends AbstractReferenceCounted {
+
+  /**
+   * Capacity of the first buffer allocated for written content.
+   */
+  private static final int INITIAL_CAPACITY = 256;
 
   private final Map<String, String> headers = new HashMap<>();
 
   private HttpResponseStatus status;
 
-  private final CompositeByteBuf body = Unpooled.compositeBuffer();
+  @Getter(AccessLevel.NONE)
+  private final ByteBufAllocator alloc;
+
+  /**
+   * Content of the body before {@link #tail}; {@code null} if nothing is written.
+   */
+  @Getter(AccessLevel.NONE)
+  private ByteBuf body;
+
+  /**
+   * The buffer that strings and bytes are written into, appended to {@link #body} when a buffer is written
+   * after it or the body is read.
+   */
+  @Getter(AccessLevel.NONE)
+  private ByteBuf tail;
+
+  @Getter(AccessLevel.NONE)
+  private BodyWriter writer;
+
+  /**
+   * The file to send as the body; {@code null} if the body is written via {@code write()}.
+   */
+  private Path file;
+
+  private long filePosition;
+
+  private long fileLength;
+
+  /**
+   * The body produced while it is sent; {@code null} if the body is not streamed.
+   */
+  private ChunkedInput<ByteBuf> chunks;
+
+  public HttpResponse() {
+    this(ByteBufAllocator.DEFAULT);
+  }
+
+  /**
+   * @param alloc allocates buffers for written content, usually the allocator of the channel.
+   */
+  public HttpResponse(ByteBufAllocator alloc) {
+    this.alloc = alloc;
+  }
+
+  /**
+   * @return the body written via {@code write()}; the response owns the buffer.
+   */
+  public ByteBuf getBody() {
+    if (tail != null) {
+      append(tail);
+      tail = null;
+    }
+    return body == null ? Unpooled.EMPTY_BUFFER : body;
+  }
 
   public HttpResponse write(String content) {
+    return write((CharSequence) content);
+  }
+
+  /**
+   * Write {@code content} encoded in UTF-8, straight into the body buffer.
+   *
+   * @return this.
+   */
+  public HttpResponse write(CharSequence content) {
     if (content != null) {
-      write(content.getBytes(StandardCharsets.UTF_8));
+      int length = ByteBufUtil.utf8Bytes(content);
+      ByteBufUtil.reserveAndWriteUtf8(tail(length), content, length);
     }
     return this;
   }
 
   public HttpResponse write(byte[] bytes) {
-    body.addComponent(true, Unpooled.copiedBuffer(bytes));
+    tail(bytes.length).writeBytes(bytes);
     return this;
   }
 
+  /**
+   * Append {@code buf} to the body without copying, the response takes the ownership of {@code buf}.
+   *
+   * @return this.
+   */
   public HttpResponse write(ByteBuf buf) {
-    body.addComponent(true, buf);
+    if (tail != null) {
+      append(tail);
+      tail = null;
+    }
+    append(buf);
+    return this;
+  }
+
+  /**
+   * @return a writer that encodes characters in UTF-8 straight into the body, for serializers that write
+   *     to a {@link Writer} or an {@link Appendable}.
+   */
+  public Writer writer() {
+    if (writer == null) {
+      writer = new BodyWriter();
+    }
+    return writer;
+  }
+
+  private ByteBuf tail(int minWritable) {
+    if (tail == null) {
+      tail = alloc.buffer(Math.max(minWritable, INITIAL_CAPACITY));
+    }
+    return tail;
+  }
+
+  private void append(ByteBuf buf) {
+    if (body == null) {
+      body = buf;
+    } else if (body instanceof CompositeByteBuf) {
+      ((CompositeByteBuf) body).addComponent(true, buf);
+    } else {
+      body = alloc.compositeBuffer().addComponents(true, body, buf);
+    }
+  }
+
+  /**
+   * Send the whole file as the body.
+   *
+   * @see #file(Path, long, long)
+   */
+  public HttpResponse file(Path file) throws IOException {
+    return file(file, 0, Files.size(file));
+  }
+
+  /**
+   * Send {@code length} bytes of {@code file} from {@code position} as the body. The file is transferred
+   * to the connection without being copied into memory, with sendfile where the transport supports it.
+   * Content written via {@code write()} is ignored.
+   *
+   * @param file the file to send.
+   * @param position start position in the file.
+   * @param length number of bytes to send.
+   * @return this.
+   */
+  public HttpResponse file(Path file, long position, long length) {
+    if (position < 0 || length < 0) {
+      throw new IllegalArgumentException("The position and length cannot be negative.");
+    }
+    this.file = file;
+    this.filePosition = position;
+    this.fileLength = length;
+    return this;
+  }
+
+  /**
+   * Stream the body: the response head is sent when the handler returns, chunks written to the returned
+   * stream are sent as they are produced. Content written via {@code write()} is ignored.
+   *
+   * @return the stream to write the body to.
+   */
+  public ResponseBodyStream stream() {
+    ResponseBodyStream stream = new ResponseBodyStream();
+    this.chunks = stream;
+    return stream;
+  }
+
+  /**
+   * Send chunks read from {@code input} as the body. The connection reads the next chunk when it is
+   * writable, and closes {@code input} when the body is sent. Content written via {@code write()} is ignored.
+   *
+   * @param input the body.
+   * @return this.
+   */
+  public HttpResponse chunked(ChunkedInput<ByteBuf> input) {
+    this.chunks = input;
+    return this;
+  }
+
+  /**
+   * @return the length of the body; or {@code -1} if the body is streamed and its length is unknown.
+   */
+  public long contentLength() {
+    if (chunks != null) {
+      return chunks.length();
+    }
+    if (file != null) {
+      return fileLength;
+    }
+    return (body == null ? 0 : body.readableBytes()) + (tail == null ? 0 : tail.readableBytes());
+  }
+
+  /**
+   * Discard the body, including a file body and a streamed body.
+   *
+   * @return this.
+   */
+  public HttpResponse clearBody() {
+    if (body != null) {
+      body.release();
+      body = null;
+    }
+    if (tail != null) {
+      tail.release();
+      tail = null;
+    }
+    file = null;
+    if (chunks != null) {
+      try {
+        chunks.close();
+      } catch (Exception e) {
+        // Nothing to send, the input is discarded anyway.
+      }
+      chunks = null;
+    }
     return this;
   }
 
@@ -45,4 +255,113 @@ public class HttpResponse {
     return this;
   }
 
+  @Override
+  public HttpResponse retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public HttpResponse retain(int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  public HttpResponse touch() {
+    super.touch();
+    return this;
+  }
+
+  @Override
+  public HttpResponse touch(Object hint) {
+    if (body != null) {
+      body.touch(hint);
+    }
+    if (tail != null) {
+      tail.touch(hint);
+    }
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    clearBody();
+  }
+
+  /**
+   * Encodes characters into the body. A high surrogate at the end of a write is held back until the low
+   * surrogate arrives, so that a code point split between writes is encoded as one.
+   */
+  private class BodyWriter extends Writer {
+
+    private char highSurrogate;
+
+    @Override
+    public void write(int c) {
+      append((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      append(CharBuffer.wrap(cbuf, off, len), 0, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) {
+      CharSequence chars = csq == null ? "null" : csq;
+      return append(chars, 0, chars.length());
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) {
+      CharSequence chars = csq == null ? "null" : csq;
+      if (start == end) {
+        return this;
+      }
+      if (highSurrogate != 0) {
+        char high = highSurrogate;
+        highSurrogate = 0;
+        if (Character.isLowSurrogate(chars.charAt(start))) {
+          ByteBufUtil.writeUtf8(tail(4), new String(new char[] {high, chars.charAt(start)}));
+          start++;
+        } else {
+          ByteBufUtil.writeUtf8(tail(1), String.valueOf(high));
+        }
+      }
+      if (start < end && Character.isHighSurrogate(chars.charAt(end - 1))) {
+        highSurrogate = chars.charAt(--end);
+      }
+      if (start < end) {
+        int length = ByteBufUtil.utf8Bytes(chars, start, end);
+        ByteBufUtil.reserveAndWriteUtf8(tail(length), chars, start, end, length);
+      }
+      return this;
+    }
+
+    @Override
+    public Writer append(char c) {
+      return append(String.valueOf(c), 0, 1);
+    }
+
+    @Override
+    public void flush() {
+      if (highSurrogate != 0) {
+        ByteBufUtil.writeUtf8(tail(1), String.valueOf(highSurrogate));
+        highSurrogate = 0;
+      }
+    }
+
+    @Override
+    public void close() {
+      flush();
+    }
+
+  }
+
 }
@@ -0,0 +1,15 @@
+package com.robothy.netty.http;
+
+/**
+ * The body of a request received by a {@link StreamingRequestHandler}.
+ */
+public interface RequestBodyStream {
+
+  /**
+   * Ask for the next chunk of the body. The chunk is passed to
+   * {@link StreamingRequestHandler#onContent(HttpRequest, io.netty.buffer.ByteBuf, RequestBodyStream)}
+   * once it arrives; calling this method again before that has no effect. It can be called from any thread.
+   */
+  void read();
+
+}
@@ -0,0 +1,195 @@
+package com.robothy.netty.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayDeque;
+
+/**
+ * The body of a response that is produced while it is sent, see {@link HttpResponse#stream()}. The body is
+ * sent with {@code Transfer-Encoding: chunked} unless the handler sets {@code Content-Length}.
+ *
+ * <p>Written chunks are queued until the connection takes them, and the connection only takes them while
+ * it is writable. The producer should stop writing when {@link #isWritable()} returns {@code false} and
+ * resume from {@link #onWritable(Runnable)}. The queue is bounded by the write buffer water marks of the
+ * channel.
+ *
+ * <p>All methods can be called from any thread.
+ */
+public class ResponseBodyStream implements ChunkedInput<ByteBuf> {
+
+  private final ArrayDeque<ByteBuf> queue = new ArrayDeque<>();
+
+  private long queuedBytes;
+
+  private long progress;
+
+  private int highWaterMark = WriteBufferWaterMark.DEFAULT.high();
+
+  private int lowWaterMark = WriteBufferWaterMark.DEFAULT.low();
+
+  private ChunkedWriteHandler writer;
+
+  private Runnable onWritable;
+
+  private boolean ended;
+
+  private boolean closed;
+
+  ResponseBodyStream() {
+
+  }
+
+  /**
+   * Queue {@code chunk} to be sent, the stream takes the ownership of {@code chunk}. A chunk written after
+   * the stream is closed is released.
+   *
+   * @return this.
+   */
+  public ResponseBodyStream write(ByteBuf chunk) {
+    ChunkedWriteHandler writer;
+    synchronized (this) {
+      if (closed || ended) {
+        ReferenceCountUtil.release(chunk);
+        return this;
+      }
+      queue.add(chunk);
+      queuedBytes += chunk.readableBytes();
+      writer = this.writer;
+    }
+    if (writer != null) {
+      writer.resumeTransfer();
+    }
+    return this;
+  }
+
+  /**
+   * Complete the body after the queued chunks.
+   */
+  public void end() {
+    ChunkedWriteHandler writer;
+    synchronized (this) {
+      ended = true;
+      writer = this.writer;
+    }
+    if (writer != null) {
+      writer.resumeTransfer();
+    }
+  }
+
+  /**
+   * @return {@code true} if the queued chunks are below the high water mark; {@code false} if the producer
+   *     should wait for {@link #onWritable(Runnable)}.
+   */
+  public synchronized boolean isWritable() {
+    return queuedBytes < highWaterMark;
+  }
+
+  /**
+   * Run {@code callback} once the queued chunks drop below the low water mark, or when the stream is
+   * closed. It runs at once if the stream is writable already. The callback runs on the event loop of the
+   * connection and should not block it.
+   */
+  public void onWritable(Runnable callback) {
+    synchronized (this) {
+      if (queuedBytes >= highWaterMark && !closed) {
+        this.onWritable = callback;
+        return;
+      }
+    }
+    callback.run();
+  }
+
+  /**
+   * @return {@code true} if the connection finished or gave up sending the body; further writes are
+   *     discarded.
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Bind the stream to the connection, called by the encoder when the response head is written.
+   *
+   * @param channel a channel with a {@link ChunkedWriteHandler} in its pipeline.
+   */
+  public void bind(Channel channel) {
+    ChunkedWriteHandler writer = channel.pipeline().get(ChunkedWriteHandler.class);
+    if (writer == null) {
+      throw new IllegalStateException("A ChunkedWriteHandler is required to stream the response body.");
+    }
+    WriteBufferWaterMark waterMark = channel.config().getWriteBufferWaterMark();
+    synchronized (this) {
+      this.highWaterMark = waterMark.high();
+      this.lowWaterMark = waterMark.low();
+      this.writer = writer;
+    }
+  }
+
+  @Override
+  public synchronized boolean isEndOfInput() {
+    return ended && queue.isEmpty();
+  }
+
+  @Override
+  public void close() {
+    Runnable callback;
+    synchronized (this) {
+      closed = true;
+      ByteBuf chunk;
+      while ((chunk = queue.poll()) != null) {
+        chunk.release();
+      }
+      queuedBytes = 0;
+      callback = this.onWritable;
+      this.onWritable = null;
+    }
+    if (callback != null) {
+      callback.run();
+    }
+  }
+
+  @Deprecated
+  @Override
+  public ByteBuf readChunk(ChannelHandlerContext ctx) {
+    return readChunk(ctx.alloc());
+  }
+
+  @Override
+  public ByteBuf readChunk(ByteBufAllocator allocator) {
+    Runnable callback = null;
+    ByteBuf chunk;
+    synchronized (this) {
+      chunk = queue.poll();
+      if (chunk == null) {
+        return null;
+      }
+      queuedBytes -= chunk.readableBytes();
+      progress += chunk.readableBytes();
+      if (onWritable != null && queuedBytes < lowWaterMark) {
+        callback = this.onWritable;
+        this.onWritable = null;
+      }
+    }
+    if (callback != null) {
+      callback.run();
+    }
+    return chunk;
+  }
+
+  @Override
+  public long length() {
+    return -1;
+  }
+
+  @Override
+  public synchronized long progress() {
+    return progress;
+  }
+
+}
@@ -0,0 +1,48 @@
+package com.robothy.netty.http;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A handler that receives the request body in chunks as they arrive, instead of the whole body at once.
+ * Register it like any other {@link HttpRequestHandler}; the route is matched on the request head.
+ *
+ * <p>The body is read with backpressure: the connection stops reading after the head of the request,
+ * and each {@link RequestBodyStream#read()} lets one more chunk in. After the last chunk,
+ * {@link #handle(HttpRequest, HttpResponse)} is called to write the response, the body of the request
+ * is empty then.
+ *
+ * <p>The methods are called one at a time and, like {@code handle()}, run where the {@link ExecutionPolicy}
+ * of the route says: on the event loop for {@link ExecutionPolicy#NON_BLOCKING} routes, where they must not
+ * block, and on the handler executor of {@link com.robothy.netty.initializer.HttpServerInitializer} otherwise.
+ */
+public interface StreamingRequestHandler extends HttpRequestHandler {
+
+  /**
+   * Called when the head of the request arrives. Call {@code body.read()} to receive the first chunk.
+   *
+   * @param request the request without body.
+   * @param body the body of the request.
+   */
+  void onRequest(HttpRequest request, RequestBodyStream body) throws Exception;
+
+  /**
+   * Called for each chunk of the body that was {@linkplain RequestBodyStream#read() read}. {@code content}
+   * is released after this method returns, retain it to keep it longer. The last chunk may be empty.
+   *
+   * @param request the request without body.
+   * @param content a chunk of the body.
+   * @param body the body of the request.
+   */
+  void onContent(HttpRequest request, ByteBuf content, RequestBodyStream body) throws Exception;
+
+  /**
+   * Called if the connection closes before the body is complete, to release what the handler holds for
+   * the request. {@link #handle(HttpRequest, HttpResponse)} is not called then.
+   *
+   * @param request the request without body.
+   */
+  default void onAbort(HttpRequest request) {
+
+  }
+
+}
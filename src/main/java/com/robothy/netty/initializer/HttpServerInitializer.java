@@ -1,23 +1,97 @@
 package com.robothy.netty.initializer;
 
 import com.robothy.netty.codec.HttpMessageHandler;
+import com.robothy.netty.codec.RequestBodyOptions;
+import com.robothy.netty.http.ExecutionPolicy;
 import com.robothy.netty.router.Router;
+import com.robothy.netty.utils.VirtualThreads;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.concurrent.EventExecutorGroup;
+import java.util.concurrent.Executor;
 
+/**
+ * Decodes requests, routes them and encodes responses on the event loop of the channel. Handlers, including the
+ * streaming callbacks, run on a handler executor, except handlers of {@link ExecutionPolicy#NON_BLOCKING} routes,
+ * which run inline. Spilled request bodies are written to their files on the handler executor too.
+ */
 public class HttpServerInitializer extends ChannelInitializer<SocketChannel> {
 
+  /**
+   * Each channel runs its handlers on one executor of the group; {@code null} if {@link #handlerExecutor} is set.
+   */
   private final EventExecutorGroup executorGroup;
 
+  /**
+   * Runs each invocation of a handler; {@code null} if {@link #executorGroup} is set.
+   */
+  private final Executor handlerExecutor;
+
   private final Router router;
 
+  private final RequestBodyOptions requestBodyOptions;
+
+  private int pipeliningDepth = 1;
+
+  /**
+   * @param executorGroup runs the handlers, the handlers of a channel run on one executor of the group.
+   * @param router routes requests.
+   */
   public HttpServerInitializer(EventExecutorGroup executorGroup, Router router) {
+    this(executorGroup, router, RequestBodyOptions.defaults());
+  }
+
+  /**
+   * @param executorGroup runs the handlers, the handlers of a channel run on one executor of the group.
+   * @param router routes requests.
+   * @param requestBodyOptions limits of request bodies, shared by all connections of the server.
+   */
+  public HttpServerInitializer(EventExecutorGroup executorGroup, Router router, RequestBodyOptions requestBodyOptions) {
+    this(executorGroup, null, router, requestBodyOptions);
+  }
+
+  private HttpServerInitializer(EventExecutorGroup executorGroup, Executor handlerExecutor, Router router,
+                                RequestBodyOptions requestBodyOptions) {
     this.executorGroup = executorGroup;
+    this.handlerExecutor = handlerExecutor;
     this.router = router;
+    this.requestBodyOptions = requestBodyOptions;
+  }
+
+  /**
+   * Run each invocation of a handler on {@code handlerExecutor} instead of an executor bound to the channel, e.g.
+   * on virtual threads with {@link VirtualThreads#newVirtualThreadPerTaskExecutor()}. The caller owns the executor
+   * and shuts it down once the server is closed.
+   *
+   * @param handlerExecutor runs the handlers.
+   * @param router routes requests.
+   * @param requestBodyOptions limits of request bodies, shared by all connections of the server.
+   * @return the initializer.
+   */
+  public static HttpServerInitializer offloading(Executor handlerExecutor, Router router,
+                                                 RequestBodyOptions requestBodyOptions) {
+    return new HttpServerInitializer(null, handlerExecutor, router, requestBodyOptions);
+  }
+
+  /**
+   * Handle up to {@code pipeliningDepth} requests pipelined on a connection at once, default 1. Responses are
+   * still written in the order of the requests. Synchronous handlers of a connection run concurrently on the
+   * whole executor group, or on the handler executor of {@link #offloading(Executor, Router, RequestBodyOptions)}
+   * if it has several threads. Set it before the server is bound.
+   *
+   * @param pipeliningDepth requests of a connection handled at once, at least 1.
+   * @return this initializer.
+   */
+  public HttpServerInitializer pipeliningDepth(int pipeliningDepth) {
+    if (pipeliningDepth < 1) {
+      throw new IllegalArgumentException("The pipelining depth must be at least 1.");
+    }
+    this.pipeliningDepth = pipeliningDepth;
+    return this;
   }
 
   @Override
@@ -25,11 +99,23 @@ public class HttpServerInitializer extends ChannelInitializer<SocketChannel> {
     ChannelPipeline pipeline = ch.pipeline();
     ch.config().setConnectTimeoutMillis(10000);
     ch.config().setAutoClose(true);
+    Executor executor = handlerExecutor();
     pipeline.addLast("http-request-decoder", new HttpRequestDecoder());
     pipeline.addLast("http-response-encoder", new HttpResponseEncoder());
-    pipeline.addLast(this.executorGroup, "router-http-request-decoder", new com.robothy.netty.codec.HttpRequestDecoder());
-    pipeline.addLast(this.executorGroup, "router-http-response-encoder", new com.robothy.netty.codec.HttpResponseEncoder());
-    pipeline.addLast(this.executorGroup, "router-http-message-handler", new HttpMessageHandler(router));
+    pipeline.addLast("http-chunked-writer", new ChunkedWriteHandler());
+    pipeline.addLast("router-http-request-decoder",
+        new com.robothy.netty.codec.HttpRequestDecoder(router, requestBodyOptions, executor));
+    pipeline.addLast("router-http-response-encoder", new com.robothy.netty.codec.HttpResponseEncoder());
+    pipeline.addLast("router-http-message-handler",
+        new HttpMessageHandler(router, executor, pipeliningDepth));
+  }
+
+  private Executor handlerExecutor() {
+    if (handlerExecutor != null || executorGroup == null) {
+      return handlerExecutor;
+    }
+    // Bound to one executor, the handlers of a channel run one at a time.
+    return pipeliningDepth > 1 ? executorGroup : executorGroup.next();
   }
 
 }
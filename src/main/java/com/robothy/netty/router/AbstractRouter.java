@@ -1,14 +1,17 @@
 package com.robothy.netty.router;
 
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public abstract class AbstractRouter implements Router {
 
@@ -16,7 +19,7 @@ public abstract class AbstractRouter implements Router {
   private final Map<Class<? extends Throwable>, ExceptionHandler<?>> exceptionHandlerMap;
 
   {
-    exceptionHandlerMap = new HashMap<>();
+    exceptionHandlerMap = new ConcurrentHashMap<>();
     exceptionHandlerMap.put(Throwable.class, (cause, request, response) -> {
       ByteArrayOutputStream out = new ByteArrayOutputStream();
       PrintStream printStream = new PrintStream(out);
@@ -27,23 +30,231 @@ public abstract class AbstractRouter implements Router {
     });
   }
 
-  private HttpRequestHandler notFoundHandler = DEFAULT_NOT_FOUND_HANDLER;
+  private volatile HttpRequestHandler notFoundHandler = DEFAULT_NOT_FOUND_HANDLER;
 
-  private StaticResourceMatcher staticResourceMatcher
+  private volatile StaticResourceMatcher staticResourceMatcher
       = StaticResourceMatcher.create("classpath:static");
 
+  private volatile RouteCache routeCache;
+
+  private volatile ConcurrencyLimiter concurrencyLimiter;
+
+  private volatile boolean frozen;
+
+  /**
+   * Indexes of the methods routed by this router, shared with the staging routers of {@link #reload(Consumer)}.
+   */
+  private MethodIndex methodIndex = new MethodIndex();
+
   @Override
   public Router notFound(HttpRequestHandler handler) {
     this.notFoundHandler = handler;
+    invalidateRouteCache();
     return this;
   }
 
   @Override
   public Router staticResource(String rootPath) {
-    this.staticResourceMatcher = StaticResourceMatcher.create(rootPath);
+    return staticResource(rootPath, StaticResourceOptions.defaults());
+  }
+
+  @Override
+  public Router staticResource(String rootPath, StaticResourceOptions options) {
+    StaticResourceMatcher previous = this.staticResourceMatcher;
+    this.staticResourceMatcher = StaticResourceMatcher.create(rootPath, options);
+    previous.close();
+    invalidateRouteCache();
     return this;
   }
 
+  @Override
+  public Router routeCache(int maximumSize) {
+    this.routeCache = maximumSize == 0 ? null : new RouteCache(maximumSize);
+    return this;
+  }
+
+  @Override
+  public RouteCache routeCache() {
+    return this.routeCache;
+  }
+
+  @Override
+  public Router concurrencyLimit(ConcurrencyLimiter limiter) {
+    this.concurrencyLimiter = limiter;
+    return this;
+  }
+
+  @Override
+  public ConcurrencyLimiter concurrencyLimiter() {
+    return this.concurrencyLimiter;
+  }
+
+  /**
+   * Finishes {@link #matchNonBlocking(HttpRequest)} on the thread that handles the request.
+   */
+  private final HttpRequestHandler deferredFallback =
+      (request, response) -> ExecutionPolicy.unwrap(fallback(request)).handle(request, response);
+
+  @Override
+  public HttpRequestHandler match(HttpRequest request) {
+    HttpRequestHandler handler = matchRoutes(request);
+    return handler != null ? handler : fallback(request);
+  }
+
+  @Override
+  public HttpRequestHandler matchNonBlocking(HttpRequest request) {
+    HttpRequestHandler handler = matchRoutes(request);
+    if (handler != null) {
+      return handler;
+    }
+    return staticResourceMatcher.blocking() ? deferredFallback : fallback(request);
+  }
+
+  /**
+   * @return the handler of the matched route; or {@code null} if no route matches.
+   */
+  private HttpRequestHandler matchRoutes(HttpRequest request) {
+    RouteCache cache = this.routeCache;
+    RouteCache.Table cacheTable = null;
+    RouteMatch match;
+    if (cache != null) {
+      cacheTable = cache.table();
+      if ((match = cache.get(cacheTable, request.getMethod(), request.getPath())) != null) {
+        match.putPathVariables(request);
+        return match.handler();
+      }
+    }
+
+    if ((match = resolve(request, methodIndex.indexOf(request.getMethod()))) != null) {
+      match.putPathVariables(request);
+      if (cache != null && match.cacheable()) {
+        cache.put(cacheTable, request.getMethod(), request.getPath(), match);
+      }
+      return match.handler();
+    }
+    return null;
+  }
+
+  /**
+   * Match a request no route matches: a static resource, then other methods of the path, then not found.
+   */
+  private HttpRequestHandler fallback(HttpRequest request) {
+    HttpRequestHandler handler;
+    if ((handler = staticResourceMatcher.match(request)) != null) {
+      return handler;
+    }
+    RouteMatch match;
+    if ((match = otherMethods(request, methodIndex.indexOf(request.getMethod()))) != null) {
+      return match.handler();
+    }
+    return notFoundHandler;
+  }
+
+  /**
+   * Match the request against registered routes. A {@code HEAD} request falls back to {@code GET} routes.
+   */
+  private RouteMatch resolve(HttpRequest request, int method) {
+    RouteMatch match = null;
+    if (method != -1 && (match = matchRoute(request, method)) == null && method == MethodIndex.HEAD) {
+      match = matchRoute(request, MethodIndex.GET);
+    }
+    return match;
+  }
+
+  /**
+   * Answer a request whose path only has routes under other methods and no static resource: an
+   * {@code OPTIONS} request gets the allowed methods and other requests get {@code 405 Method Not Allowed}.
+   * Not cached, a static resource created later takes precedence.
+   */
+  private RouteMatch otherMethods(HttpRequest request, int method) {
+    long allowedMethods = allowedMethods(request);
+    if (allowedMethods == 0
+        || (method != -1 && (allowedMethods & (1L << method)) != 0)
+        || (method == MethodIndex.HEAD && (allowedMethods & (1L << MethodIndex.GET)) != 0)) {
+      // No routes on the path, or routes of the method rejected the request by header or parameter matchers.
+      return null;
+    }
+    AllowedMethods allowed = methodIndex.allowed(allowedMethods);
+    return method == MethodIndex.OPTIONS ? allowed.options() : allowed.methodNotAllowed();
+  }
+
+  @Override
+  public Router freeze() {
+    compileRoutes();
+    this.frozen = true;
+    return this;
+  }
+
+  @Override
+  public Router reload(Consumer<Router> routes) {
+    Objects.requireNonNull(routes, "The routes registrar shouldn't be null.");
+    AbstractRouter staging = newRouter();
+    staging.methodIndex = this.methodIndex;
+    routes.accept(staging);
+    staging.compileRoutes();
+    replaceRoutes(staging);
+    invalidateRouteCache();
+    return this;
+  }
+
+  /**
+   * Throws {@linkplain IllegalStateException} if the router is frozen.
+   */
+  protected void ensureNotFrozen() {
+    if (frozen) {
+      throw new IllegalStateException("The router is frozen, use reload() to replace its routes.");
+    }
+  }
+
+  /**
+   * Create an empty router of the same type to register routes for {@linkplain #reload(Consumer)}.
+   */
+  protected abstract AbstractRouter newRouter();
+
+  /**
+   * Build the read-optimized form of the current routing table ahead of the first match.
+   */
+  protected abstract void compileRoutes();
+
+  /**
+   * Replace the routing table of this router with the routing table of {@code source}
+   * in a single volatile write.
+   *
+   * @param source a router created by {@linkplain #newRouter()}.
+   */
+  protected abstract void replaceRoutes(AbstractRouter source);
+
+  /**
+   * Find the route for the request among routes registered under {@code method}.
+   *
+   * @param request HTTP request.
+   * @param method index of the method to match, may differ from the request method.
+   * @return the matched route; or {@code null} if no registered route matches the request.
+   */
+  protected abstract RouteMatch matchRoute(HttpRequest request, int method);
+
+  /**
+   * Find methods that have routes matching the request path, regardless of header and parameter matchers.
+   *
+   * @param request HTTP request.
+   * @return bitmask of method indexes.
+   */
+  protected abstract long allowedMethods(HttpRequest request);
+
+  /**
+   * Discard cached routes. Subclasses must call this method after the routing table changed.
+   */
+  protected void invalidateRouteCache() {
+    RouteCache cache = this.routeCache;
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  MethodIndex methodIndex() {
+    return this.methodIndex;
+  }
+
   protected HttpRequestHandler notFoundHandler() {
     return this.notFoundHandler;
   }
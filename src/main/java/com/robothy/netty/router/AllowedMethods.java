@@ -0,0 +1,38 @@
+package com.robothy.netty.router;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Responses for a path that has routes under some methods, see {@link MethodIndex#allowed(long)}.
+ */
+final class AllowedMethods {
+
+  private final RouteMatch methodNotAllowed;
+
+  private final RouteMatch options;
+
+  AllowedMethods(String allow) {
+    this.methodNotAllowed = new RouteMatch((request, response) -> response
+        .status(HttpResponseStatus.METHOD_NOT_ALLOWED)
+        .putHeader(HttpHeaderNames.ALLOW.toString(), allow), true);
+    this.options = new RouteMatch((request, response) -> response
+        .status(HttpResponseStatus.OK)
+        .putHeader(HttpHeaderNames.ALLOW.toString(), allow), true);
+  }
+
+  /**
+   * A {@code 405 Method Not Allowed} response.
+   */
+  RouteMatch methodNotAllowed() {
+    return methodNotAllowed;
+  }
+
+  /**
+   * A response to {@code OPTIONS} that lists the allowed methods without running a handler.
+   */
+  RouteMatch options() {
+    return options;
+  }
+
+}
@@ -0,0 +1,135 @@
+package com.robothy.netty.router;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes requested by a {@code Range} header, see RFC 7233.
+ */
+final class ByteRange {
+
+  /**
+   * Requests with more ranges are served as a whole.
+   */
+  static final int MAX_RANGES = 16;
+
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final long start;
+
+  /**
+   * The last position, inclusive.
+   */
+  private final long end;
+
+  ByteRange(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  long start() {
+    return start;
+  }
+
+  long end() {
+    return end;
+  }
+
+  long length() {
+    return end - start + 1;
+  }
+
+  /**
+   * @return the value of the {@code Content-Range} header of this range.
+   */
+  String contentRange(long size) {
+    return "bytes " + start + "-" + end + "/" + size;
+  }
+
+  /**
+   * Parse a {@code Range} header against a representation of {@code size} bytes. Ranges that overlap or
+   * are adjacent are coalesced.
+   *
+   * @return the satisfiable ranges, empty if no range is satisfiable; or {@code null} if the header is
+   *     malformed or asks for more than {@link #MAX_RANGES} ranges, then the header should be ignored.
+   */
+  static List<ByteRange> parse(String range, long size) {
+    if (!range.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+      return null;
+    }
+
+    List<ByteRange> ranges = new ArrayList<>(1);
+    int count = 0;
+    for (String spec : range.substring(BYTES_UNIT.length()).split(",")) {
+      spec = spec.trim();
+      if (spec.isEmpty()) {
+        continue;
+      }
+      if (++count > MAX_RANGES) {
+        return null;
+      }
+
+      int dash = spec.indexOf('-');
+      if (dash == -1) {
+        return null;
+      }
+      try {
+        if (dash == 0) {
+          // The last n bytes.
+          long suffix = position(spec.substring(1));
+          if (suffix > 0 && size > 0) {
+            ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+          }
+          continue;
+        }
+
+        long start = position(spec.substring(0, dash));
+        long end = dash == spec.length() - 1 ? Long.MAX_VALUE : position(spec.substring(dash + 1));
+        if (end < start) {
+          return null;
+        }
+        if (start < size) {
+          ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    if (count == 0) {
+      return null;
+    }
+    return ranges.size() > 1 ? coalesce(ranges) : ranges;
+  }
+
+  /**
+   * Parse a position or a suffix length, which RFC 7233 allows as digits only; unlike
+   * {@link Long#parseLong(String)}, a sign is rejected.
+   */
+  private static long position(String digits) {
+    if (digits.isEmpty() || !Character.isDigit(digits.charAt(0))) {
+      throw new NumberFormatException("Not a byte position: " + digits);
+    }
+    return Long.parseLong(digits);
+  }
+
+  private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+    List<ByteRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(Comparator.comparingLong(ByteRange::start));
+    List<ByteRange> coalesced = new ArrayList<>(sorted.size());
+    ByteRange current = sorted.get(0);
+    for (int i = 1; i < sorted.size(); i++) {
+      ByteRange next = sorted.get(i);
+      if (next.start <= current.end + 1) {
+        current = new ByteRange(current.start, Math.max(current.end, next.end));
+      } else {
+        coalesced.add(current);
+        current = next;
+      }
+    }
+    coalesced.add(current);
+    // Keep the requested order if nothing is coalesced.
+    return coalesced.size() == ranges.size() ? ranges : coalesced;
+  }
+
+}
@@ -0,0 +1,215 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequestHandler;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the requests handled at once, with a limit that adapts to the observed latency (AIMD): each response
+ * written within the latency threshold while the limit is at least half used raises the limit by one, each
+ * slower response or failed write cuts it by the backoff ratio.
+ *
+ * <p>Requests over the limit are answered with {@code 503 Service Unavailable} and {@code Retry-After} right
+ * after their head is decoded, before their body is aggregated and before any handler runs. Set a limiter
+ * for all requests via {@link Router#concurrencyLimit(ConcurrencyLimiter)}, or for a route via
+ * {@link Route.Builder#concurrencyLimiter(ConcurrencyLimiter)}; a limiter can be shared by several routes.
+ * A request is in flight from its head until its response is written.
+ */
+public class ConcurrencyLimiter {
+
+  private final int minLimit;
+
+  private final int maxLimit;
+
+  private final double backoffRatio;
+
+  private final long latencyThresholdNanos;
+
+  private final HttpRequestHandler rejectionHandler;
+
+  private final AtomicInteger limit;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private ConcurrencyLimiter(Builder builder) {
+    if (builder.minLimit < 1 || builder.maxLimit < builder.minLimit) {
+      throw new IllegalArgumentException("The limits must satisfy 1 <= minLimit <= maxLimit.");
+    }
+    if (builder.backoffRatio <= 0 || builder.backoffRatio >= 1) {
+      throw new IllegalArgumentException("The backoff ratio must be in (0, 1).");
+    }
+    this.minLimit = builder.minLimit;
+    this.maxLimit = builder.maxLimit;
+    this.backoffRatio = builder.backoffRatio;
+    this.latencyThresholdNanos = builder.latencyThreshold.toNanos();
+    this.limit = new AtomicInteger(Math.max(minLimit, Math.min(maxLimit, builder.initialLimit)));
+    String retryAfter = String.valueOf(builder.retryAfter.getSeconds());
+    this.rejectionHandler = ExecutionPolicy.NON_BLOCKING.apply((request, response) -> response
+        .status(HttpResponseStatus.SERVICE_UNAVAILABLE)
+        .putHeader(HttpHeaderNames.RETRY_AFTER.toString(), retryAfter));
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return {@code handler} limited by this limiter, keeping the {@link ExecutionPolicy} it is tagged with.
+   */
+  public HttpRequestHandler apply(HttpRequestHandler handler) {
+    return new LimitedHandler(ExecutionPolicy.unwrap(handler), ExecutionPolicy.of(handler), this);
+  }
+
+  /**
+   * @return the limiter {@code handler} is limited by; {@code null} if it is not limited.
+   */
+  public static ConcurrencyLimiter of(HttpRequestHandler handler) {
+    return handler instanceof LimitedHandler ? ((LimitedHandler) handler).limiter() : null;
+  }
+
+  /**
+   * Take a slot for a request.
+   *
+   * @return {@code true} if the request is admitted; {@code false} if the limit is reached.
+   */
+  public boolean tryAcquire() {
+    int current;
+    do {
+      current = inFlight.get();
+      if (current >= limit.get()) {
+        rejected.increment();
+        return false;
+      }
+    } while (!inFlight.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  /**
+   * Free the slot of a completed request and adapt the limit.
+   *
+   * @param latencyNanos time from the dispatch of the handler until the response was written.
+   * @param dropped whether the response could not be written.
+   */
+  public void release(long latencyNanos, boolean dropped) {
+    int used = inFlight.getAndDecrement();
+    if (dropped || latencyNanos > latencyThresholdNanos) {
+      limit.updateAndGet(current -> Math.max(minLimit, (int) (current * backoffRatio)));
+    } else if (used * 2 >= limit.get()) {
+      limit.updateAndGet(current -> Math.min(maxLimit, current + 1));
+    }
+  }
+
+  /**
+   * Free the slot of a request without adapting the limit, e.g. when another limiter rejected it.
+   */
+  public void cancel() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * @return the current limit.
+   */
+  public int limit() {
+    return limit.get();
+  }
+
+  /**
+   * @return requests admitted and not completed yet.
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return requests rejected so far.
+   */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return the handler that answers requests over the limit; it runs on the event loop.
+   */
+  public HttpRequestHandler rejectionHandler() {
+    return rejectionHandler;
+  }
+
+  public static class Builder {
+
+    private int initialLimit = 20;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 1000;
+
+    private double backoffRatio = 0.9;
+
+    private Duration latencyThreshold = Duration.ofSeconds(1);
+
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    private Builder() {
+
+    }
+
+    /**
+     * The limit before any latency is observed, default 20.
+     */
+    public Builder initialLimit(int initialLimit) {
+      this.initialLimit = initialLimit;
+      return this;
+    }
+
+    /**
+     * The limit never drops below it, default 1.
+     */
+    public Builder minLimit(int minLimit) {
+      this.minLimit = minLimit;
+      return this;
+    }
+
+    /**
+     * The limit never grows above it, default 1000.
+     */
+    public Builder maxLimit(int maxLimit) {
+      this.maxLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * The factor the limit is multiplied by on a slow or failed response, default 0.9.
+     */
+    public Builder backoffRatio(double backoffRatio) {
+      this.backoffRatio = backoffRatio;
+      return this;
+    }
+
+    /**
+     * Responses slower than this are a sign of overload, default 1 second.
+     */
+    public Builder latencyThreshold(Duration latencyThreshold) {
+      this.latencyThreshold = latencyThreshold;
+      return this;
+    }
+
+    /**
+     * The {@code Retry-After} of rejected requests, in whole seconds, default 1 second.
+     */
+    public Builder retryAfter(Duration retryAfter) {
+      this.retryAfter = retryAfter;
+      return this;
+    }
+
+    public ConcurrencyLimiter build() {
+      return new ConcurrencyLimiter(this);
+    }
+
+  }
+
+}
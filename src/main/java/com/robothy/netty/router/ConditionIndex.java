@@ -0,0 +1,138 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Dispatches among routes that share a path and a method by their {@linkplain RouteCondition conditions}.
+ *
+ * <p>If several routes compare the same header or query parameter with fixed values, e.g. API versions
+ * in {@code Accept-Version}, the request value of that key is looked up in a hash table that holds the
+ * routes able to accept it, so the cost of dispatching does not grow with the number of variants. The
+ * remaining conditions and the matcher functions of the candidates are still checked one by one.
+ *
+ * @param <T> route entry type.
+ */
+final class ConditionIndex<T> {
+
+  private final T[] entries;
+
+  /**
+   * The condition whose header or parameter is looked up; {@code null} if the entries are not indexed.
+   */
+  private final RouteCondition key;
+
+  private final Map<String, T[]> candidates;
+
+  /**
+   * Entries without a condition on the key; candidates for values absent from {@link #candidates}.
+   */
+  private final T[] others;
+
+  /**
+   * @param entries entries in priority order.
+   * @param conditions declarative conditions of an entry.
+   */
+  ConditionIndex(T[] entries, Function<T, List<RouteCondition>> conditions) {
+    this.entries = entries;
+    this.key = selectKey(entries, conditions);
+    if (key == null) {
+      this.candidates = null;
+      this.others = entries;
+      return;
+    }
+
+    RouteCondition[] keyConditions = new RouteCondition[entries.length];
+    Set<String> values = new LinkedHashSet<>();
+    List<T> others = new ArrayList<>();
+    for (int i = 0; i < entries.length; i++) {
+      keyConditions[i] = keyCondition(conditions.apply(entries[i]), key);
+      if (keyConditions[i] == null) {
+        others.add(entries[i]);
+      } else {
+        values.addAll(keyConditions[i].values());
+      }
+    }
+
+    T[] empty = Arrays.copyOf(entries, 0);
+    this.others = others.toArray(empty);
+    this.candidates = new HashMap<>(values.size() * 2);
+    for (String value : values) {
+      List<T> accepted = new ArrayList<>();
+      for (int i = 0; i < entries.length; i++) {
+        if (keyConditions[i] == null || keyConditions[i].values().contains(value)) {
+          accepted.add(entries[i]);
+        }
+      }
+      candidates.put(value, accepted.toArray(empty));
+    }
+  }
+
+  /**
+   * @return all entries in priority order.
+   */
+  T[] entries() {
+    return entries;
+  }
+
+  /**
+   * @return entries in priority order that may accept the request.
+   */
+  T[] candidates(HttpRequest request) {
+    if (key == null) {
+      return entries;
+    }
+    String value = key.value(request);
+    T[] accepted = value == null ? null : candidates.get(value);
+    return accepted == null ? others : accepted;
+  }
+
+  /**
+   * Select the header or parameter compared with fixed values by the most entries.
+   */
+  private static <T> RouteCondition selectKey(T[] entries, Function<T, List<RouteCondition>> conditions) {
+    if (entries.length < 2) {
+      return null;
+    }
+
+    RouteCondition key = null;
+    int maxCount = 1;
+    List<RouteCondition> counted = new ArrayList<>();
+    for (T entry : entries) {
+      for (RouteCondition condition : conditions.apply(entry)) {
+        if (!condition.indexable() || counted.stream().anyMatch(condition::sameKey)) {
+          continue;
+        }
+        counted.add(condition);
+        int count = 0;
+        for (T other : entries) {
+          if (keyCondition(conditions.apply(other), condition) != null) {
+            count++;
+          }
+        }
+        if (count > maxCount) {
+          key = condition;
+          maxCount = count;
+        }
+      }
+    }
+    return key;
+  }
+
+  private static RouteCondition keyCondition(List<RouteCondition> conditions, RouteCondition key) {
+    for (RouteCondition condition : conditions) {
+      if (condition.indexable() && condition.sameKey(key)) {
+        return condition;
+      }
+    }
+    return null;
+  }
+
+}
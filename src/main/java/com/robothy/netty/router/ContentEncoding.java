@@ -0,0 +1,122 @@
+package com.robothy.netty.router;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.JdkZlibEncoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+
+/**
+ * Content codings of static resources.
+ */
+final class ContentEncoding {
+
+  static final String GZIP = "gzip";
+
+  static final String DEFLATE = "deflate";
+
+  /**
+   * All codings that resources may be compressed with.
+   */
+  static final String[] ALL = {GZIP, DEFLATE};
+
+  /**
+   * Resources smaller than this are sent as they are; compressing them saves less than it costs.
+   */
+  static final int MIN_COMPRESSED_SIZE = 1024;
+
+  private static final int COMPRESSION_LEVEL = 9;
+
+  private ContentEncoding() {
+
+  }
+
+  /**
+   * Choose a coding from an {@code Accept-Encoding} header by the quality values. {@code gzip} wins
+   * over {@code deflate} if they are equally acceptable.
+   *
+   * @param acceptEncoding value of the {@code Accept-Encoding} header; or {@code null}.
+   * @return {@link #GZIP}, {@link #DEFLATE}; or {@code null} if the content should not be compressed.
+   */
+  static String negotiate(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+      return null;
+    }
+
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      int semicolon = coding.indexOf(';');
+      String name = (semicolon == -1 ? coding : coding.substring(0, semicolon)).trim();
+      float quality = semicolon == -1 ? 1 : quality(coding.substring(semicolon + 1));
+      if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+        gzip = quality;
+      } else if (DEFLATE.equalsIgnoreCase(name)) {
+        deflate = quality;
+      } else if ("*".equals(name)) {
+        any = quality;
+      }
+    }
+
+    gzip = gzip < 0 ? any : gzip;
+    deflate = deflate < 0 ? any : deflate;
+    if (gzip <= 0 && deflate <= 0) {
+      return null;
+    }
+    return gzip >= deflate ? GZIP : DEFLATE;
+  }
+
+  private static float quality(String parameters) {
+    for (String parameter : parameters.split(";")) {
+      parameter = parameter.trim();
+      if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+        try {
+          return Float.parseFloat(parameter.substring(2).trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * @return {@code true} if content of {@code contentType} is text that compresses well.
+   */
+  static boolean compressible(String contentType) {
+    return contentType != null && (contentType.startsWith("text/")
+        || contentType.contains("javascript")
+        || contentType.contains("json")
+        || contentType.contains("xml")
+        || "application/wasm".equals(contentType));
+  }
+
+  /**
+   * Compress {@code content} with the best compression. {@code content} is not released.
+   *
+   * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+   * @return the compressed content in a pooled direct buffer.
+   */
+  static ByteBuf encode(ByteBuf content, String encoding) {
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new JdkZlibEncoder(GZIP.equals(encoding) ? ZlibWrapper.GZIP : ZlibWrapper.ZLIB, COMPRESSION_LEVEL));
+    ByteBuf encoded = PooledByteBufAllocator.DEFAULT.directBuffer(content.readableBytes() / 2 + 64);
+    try {
+      channel.writeOutbound(content.retainedDuplicate());
+      channel.finish();
+      ByteBuf chunk;
+      while ((chunk = channel.readOutbound()) != null) {
+        encoded.writeBytes(chunk);
+        chunk.release();
+      }
+      // Cached for long, don't hold the spare capacity.
+      return encoded.capacity(encoded.writerIndex());
+    } catch (RuntimeException e) {
+      encoded.release();
+      channel.finishAndReleaseAll();
+      throw e;
+    }
+  }
+
+}
@@ -1,8 +1,9 @@
 package com.robothy.netty.router;
 
 import com.robothy.netty.http.HttpRequest;
-import com.robothy.netty.http.HttpRequestHandler;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -13,121 +14,154 @@ import java.util.TreeSet;
 
 final class DefaultRouter extends AbstractRouter {
 
-  private final Set<Route> ruleSet = new HashSet<>();
+  /**
+   * Registered routes, only accessed by threads that register routes.
+   */
+  private Set<Route> ruleSet = new HashSet<>();
 
-  private final TreeNode root = new TreeNode();
+  /**
+   * Registered routes in registration order, guarded by this router.
+   */
+  private List<RouteEntry> entries = new ArrayList<>();
+
+  /**
+   * The published snapshot of {@link #entries}; {@code null} after a route is registered, until the next match
+   * publishes a new one. Registering n routes copies them once rather than once per route.
+   */
+  private volatile RouteTable table;
 
   @Override
-  public Router route(Route route) {
+  public synchronized Router route(Route route) {
+    ensureNotFrozen();
     if (ruleSet.contains(route)) {
       throw new IllegalArgumentException("The router already has a handler for route " + route);
     }
-    ruleSet.add(route);
 
-    TreeNode node = addNode(root, route.getMethod().name());
     String[] segments = splitPath(route.getPath());
     for (String segment : segments) {
-      node = addNode(node, segment);
+      if (isPathVariable(segment) && segment.length() == 2) {
+        throw new IllegalArgumentException("The path variable name cannot be empty.");
+      }
     }
-    node.routes.add(route);
+
+    entries.add(new RouteEntry(route, segments, methodIndex().register(route.getMethod()), entries.size()));
+    ruleSet.add(route);
+    table = null;
+    invalidateRouteCache();
     return this;
   }
 
-  private TreeNode addNode(TreeNode parent, String path) {
-    TreeNode child = new TreeNode();
-    if (path.startsWith("{") && path.endsWith("}")) {
-      if (path.length() == 2) {
-        throw new IllegalArgumentException("The path variable name cannot be empty.");
-      }
-      if (parent.likeChild == null) {
-        parent.likeChild = child;
-      }
-      return parent.likeChild;
-    } else {
-      if (!parent.exactChildren.containsKey(path)) {
-        parent.exactChildren.put(path, child);
-      }
-      return parent.exactChildren.get(path);
-    }
+  @Override
+  protected AbstractRouter newRouter() {
+    return new DefaultRouter();
   }
 
+  @Override
+  protected void compileRoutes() {
+    table().root();
+  }
 
   @Override
-  public HttpRequestHandler match(HttpRequest request) {
-    HttpRequestHandler handler;
-    if (null != (handler = matchHandler(request)) || null != (handler = super.staticResourceMatcher().match(request))) {
-      return handler;
+  protected synchronized void replaceRoutes(AbstractRouter source) {
+    DefaultRouter router = (DefaultRouter) source;
+    synchronized (router) {
+      this.ruleSet = new HashSet<>(router.ruleSet);
+      this.entries = new ArrayList<>(router.entries);
+      this.table = router.table();
     }
-    return super.notFoundHandler();
   }
 
-  private HttpRequestHandler matchHandler(HttpRequest request) {
-    String[] segments = splitPath(request.getPath());
-    TreeNode node = root.exactChildren.get(request.getMethod().name());
-    if (node == null) {
-      return null;
-    }
+  private RouteTable table() {
+    RouteTable table = this.table;
+    return table != null ? table : publish();
+  }
 
-    int idx = 0;
-    for (; idx < segments.length; idx++) {
-      TreeNode tmp = getNode(node, segments[idx]);
-      if (tmp == null) {
-        break;
-      }
-      node = tmp;
+  private synchronized RouteTable publish() {
+    RouteTable table = this.table;
+    if (table == null) {
+      this.table = table = new RouteTable(entries.toArray(new RouteEntry[0]));
     }
+    return table;
+  }
 
-    if (idx != segments.length) {
-      return null;
-    }
+  @Override
+  protected RouteMatch matchRoute(HttpRequest request, int method) {
+    String path = request.getPath();
+    checkPath(path);
+    return find(table().root(), request, path, 0, method);
+  }
 
-    Route result = null;
-    for (Route route : node.routes) {
-      boolean headerMatched = (route.getHeaderMatcher() == null || route.getHeaderMatcher().apply(request.getHeaders()));
-      boolean paramMatched = (route.getParamMatcher() == null || route.getParamMatcher().apply(request.getParams()));
-      if (headerMatched && paramMatched) {
-        result = route;
-        break;
-      }
+  @Override
+  protected long allowedMethods(HttpRequest request) {
+    String path = request.getPath();
+    checkPath(path);
+    return allowedMethods(table().root(), path, 0);
+  }
+
+  /**
+   * Walk down the tree from {@code node} along the path segments after {@code start}. Exact segments
+   * are preferred; a path variable is tried if the exact subtree has no route for the method.
+   */
+  private static RouteMatch find(TreeNode node, HttpRequest request, String path, int start, int method) {
+    int length = path.length();
+    while (start < length && path.charAt(start) == '/') {
+      start++;
+    }
+    if (start == length) {
+      return node.match(request, path, method);
     }
 
-    if (result == null) {
-      return null;
+    int end = path.indexOf('/', start);
+    if (end == -1) {
+      end = length;
     }
 
-    request.getParams().putAll(parsePathParams(result.getPath(), request.getPath()));
-    return result.getHandler();
+    RouteMatch match;
+    TreeNode child = node.exactChildren.get(path, start, end);
+    if (child != null && (match = find(child, request, path, end, method)) != null) {
+      return match;
+    }
+    return node.likeChild == null ? null : find(node.likeChild, request, path, end, method);
   }
 
-  private Map<String, List<String>> parsePathParams(String pattern, String path) {
-    Map<String, List<String>> result = new HashMap<>();
-    String[] pathSegments = splitPath(path);
-    String[] patternSegments = splitPath(pattern);
-    if (pathSegments.length != patternSegments.length) {
-      throw new IllegalArgumentException("'" + path + "' should not match '" + pattern + "'.");
+  private static long allowedMethods(TreeNode node, String path, int start) {
+    int length = path.length();
+    while (start < length && path.charAt(start) == '/') {
+      start++;
+    }
+    if (start == length) {
+      return node.methods;
     }
 
-    for (int i = 0; i < pathSegments.length; i++) {
-      if (patternSegments[i].startsWith("{") && patternSegments[i].endsWith("}")) {
-        String key = patternSegments[i].substring(1, patternSegments[i].length() - 1);
-        result.putIfAbsent(key, new ArrayList<>());
-        result.get(key).add(pathSegments[i]);
-      }
+    int end = path.indexOf('/', start);
+    if (end == -1) {
+      end = length;
     }
 
-    return result;
+    long methods = 0;
+    TreeNode child = node.exactChildren.get(path, start, end);
+    if (child != null) {
+      methods |= allowedMethods(child, path, end);
+    }
+    if (node.likeChild != null) {
+      methods |= allowedMethods(node.likeChild, path, end);
+    }
+    return methods;
   }
 
-  TreeNode getNode(TreeNode parent, String segment) {
-    return parent.exactChildren.getOrDefault(segment, parent.likeChild);
+  private static boolean isPathVariable(String segment) {
+    return segment.startsWith("{") && segment.endsWith("}");
   }
 
-  private String[] splitPath(String path) {
+  private static void checkPath(String path) {
     Objects.requireNonNull(path, "The path cannot be null.");
     if (!path.startsWith("/")) {
       throw new IllegalArgumentException("The path must start with '/'.");
     }
+  }
 
+  private static String[] splitPath(String path) {
+    checkPath(path);
     List<String> segments = new ArrayList<>();
     StringBuilder seg = new StringBuilder();
     for (int i = 1; i < path.length(); i++) {
@@ -149,36 +183,228 @@ final class DefaultRouter extends AbstractRouter {
   }
 
   /**
-   * A dictionary tree node.
+   * A registered route with the positions of its path variables.
    */
-  private static class TreeNode {
+  private static class RouteEntry {
+
+    private final Route route;
+
+    private final int method;
+
+    /**
+     * Registration order.
+     */
+    private final int order;
+
+    private final String[] segments;
+
+    /**
+     * Distinct path variable names.
+     */
+    private final String[] variableNames;
+
+    /**
+     * The index of the variable name for each path segment; -1 if the segment is not a path variable.
+     */
+    private final int[] segmentVariables;
+
+    /**
+     * The number of values of each path variable.
+     */
+    private final int[] valueCounts;
+
+    RouteEntry(Route route, String[] segments, int method, int order) {
+      this.route = route;
+      this.method = method;
+      this.order = order;
+      this.segments = segments;
+      this.segmentVariables = new int[segments.length];
+      List<String> names = new ArrayList<>();
+      for (int i = 0; i < segments.length; i++) {
+        int variable = -1;
+        if (isPathVariable(segments[i])) {
+          String name = segments[i].substring(1, segments[i].length() - 1);
+          if ((variable = names.indexOf(name)) == -1) {
+            variable = names.size();
+            names.add(name);
+          }
+        }
+        segmentVariables[i] = variable;
+      }
+      this.variableNames = names.toArray(new String[0]);
+      this.valueCounts = new int[variableNames.length];
+      for (int variable : segmentVariables) {
+        if (variable != -1) {
+          valueCounts[variable]++;
+        }
+      }
+    }
 
-    private final Map<String, TreeNode> exactChildren = new HashMap<>();
+    /**
+     * Create a match that records the positions of path variable values in {@code path}.
+     */
+    RouteMatch match(String path, boolean cacheable) {
+      if (variableNames.length == 0) {
+        return new RouteMatch(route.getHandler(), cacheable);
+      }
 
-    private TreeNode likeChild;
+      PathVariableValues[] values = new PathVariableValues[variableNames.length];
+      int length = path.length();
+      int segment = 0;
+      for (int start = 1, end; start < length; start = end + 1) {
+        end = path.indexOf('/', start);
+        if (end == -1) {
+          end = length;
+        }
+        if (end > start) {
+          int variable = segmentVariables[segment++];
+          if (variable != -1) {
+            if (values[variable] == null) {
+              values[variable] = new PathVariableValues(path, valueCounts[variable]);
+            }
+            values[variable].add(start, end);
+          }
+        }
+      }
+      return new RouteMatch(route.getHandler(), cacheable, variableNames, values);
+    }
+  }
+
+  /**
+   * An immutable snapshot of registered routes. The tree is built when the snapshot is matched
+   * for the first time and never changes after it has been published.
+   */
+  private static final class RouteTable {
+
+    private final RouteEntry[] entries;
+
+    private volatile TreeNode root;
+
+    RouteTable(RouteEntry[] entries) {
+      this.entries = entries;
+    }
 
-    private final TreeSet<Route> routes = new TreeSet<>((r1, r2) -> {
-      // r1 and r2 has the same method and path
-      int score1 = 0, score2 = 0;
-      // Header matcher has higher priority.
-      if (Objects.nonNull(r1.getHeaderMatcher())) {
-        score1 |= (1 << 1);
+    TreeNode root() {
+      TreeNode root = this.root;
+      if (root == null) {
+        this.root = root = build(entries);
       }
+      return root;
+    }
 
-      if (Objects.nonNull(r1.getParamMatcher())) {
-        score1 |= 1;
+    private static TreeNode build(RouteEntry[] entries) {
+      TreeNode root = new TreeNode();
+      List<TreeNode> leaves = new ArrayList<>();
+      for (RouteEntry entry : entries) {
+        TreeNode node = root;
+        for (String segment : entry.segments) {
+          node = addNode(node, segment);
+        }
+        if (node.routes == null) {
+          node.routes = new HashMap<>();
+          leaves.add(node);
+        }
+        node.routes.computeIfAbsent(entry.method, k -> new TreeSet<>(ROUTE_PRIORITY)).add(entry);
       }
 
-      if (Objects.nonNull(r2.getHeaderMatcher())) {
-        score2 |= (1 << 1);
+      for (TreeNode leaf : leaves) {
+        @SuppressWarnings("unchecked")
+        ConditionIndex<RouteEntry>[] variants = new ConditionIndex[Collections.max(leaf.routes.keySet()) + 1];
+        leaf.routes.forEach((method, routes) -> {
+          variants[method] = new ConditionIndex<>(routes.toArray(new RouteEntry[0]), e -> e.route.conditions());
+          leaf.methods |= 1L << method;
+        });
+        leaf.entries = variants;
+        leaf.routes = null;
       }
+      return root;
+    }
 
-      if (Objects.nonNull(r2.getParamMatcher())) {
-        score2 |= 1;
+    private static TreeNode addNode(TreeNode parent, String path) {
+      if (isPathVariable(path)) {
+        if (parent.likeChild == null) {
+          parent.likeChild = new TreeNode();
+        }
+        return parent.likeChild;
+      } else {
+        TreeNode child = parent.exactChildren.get(path);
+        if (child == null) {
+          parent.exactChildren.putIfAbsent(path, child = new TreeNode());
+        }
+        return child;
       }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final ConditionIndex<RouteEntry>[] NO_ENTRIES = new ConditionIndex[0];
+
+  // r1 and r2 has the same method and path
+  private static final Comparator<RouteEntry> ROUTE_PRIORITY = (e1, e2) -> {
+    Route r1 = e1.route, r2 = e2.route;
+    int score1 = 0, score2 = 0;
+    // Header conditions have higher priority.
+    if (r1.hasHeaderCondition()) {
+      score1 |= (1 << 1);
+    }
 
+    if (r1.hasParamCondition()) {
+      score1 |= 1;
+    }
+
+    if (r2.hasHeaderCondition()) {
+      score2 |= (1 << 1);
+    }
+
+    if (r2.hasParamCondition()) {
+      score2 |= 1;
+    }
+
+    if (score1 != score2) {
       return score2 - score1;
-    });
+    }
+    // Then routes with more declarative conditions, then the registration order.
+    int conditions = Integer.compare(r2.conditions().size(), r1.conditions().size());
+    return conditions != 0 ? conditions : Integer.compare(e1.order, e2.order);
+  };
+
+  /**
+   * A dictionary tree node.
+   */
+  private static class TreeNode {
+
+    private final SegmentMap<TreeNode> exactChildren = new SegmentMap<>();
+
+    private TreeNode likeChild;
+
+    /**
+     * Bitmask of the indexes of methods that have routes ending at this node.
+     */
+    private long methods;
+
+    /**
+     * Routes ending at this node indexed by method, routes of each method are in priority order.
+     */
+    private ConditionIndex<RouteEntry>[] entries = NO_ENTRIES;
+
+    /**
+     * Collects routes while the tree is being built.
+     */
+    private Map<Integer, TreeSet<RouteEntry>> routes;
+
+    RouteMatch match(HttpRequest request, String path, int method) {
+      if ((methods & (1L << method)) == 0) {
+        return null;
+      }
+
+      ConditionIndex<RouteEntry> variants = entries[method];
+      for (RouteEntry entry : variants.candidates(request)) {
+        if (entry.route.accept(request)) {
+          return entry.match(path, entry == variants.entries()[0] && !entry.route.conditional());
+        }
+      }
+      return null;
+    }
   }
 
 }
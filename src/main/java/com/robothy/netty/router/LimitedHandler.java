@@ -0,0 +1,22 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequestHandler;
+
+/**
+ * The handler of a route with a concurrency limiter, see {@link ConcurrencyLimiter#apply(HttpRequestHandler)}.
+ */
+final class LimitedHandler extends ExecutionPolicy.PolicyHandler {
+
+  private final ConcurrencyLimiter limiter;
+
+  LimitedHandler(HttpRequestHandler handler, ExecutionPolicy policy, ConcurrencyLimiter limiter) {
+    super(handler, policy);
+    this.limiter = limiter;
+  }
+
+  ConcurrencyLimiter limiter() {
+    return limiter;
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.robothy.netty.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps HTTP methods to dense indexes, so that routing tables can keep routes of each method in
+ * an array and the methods allowed on a path in a {@code long} bitmask.
+ *
+ * <p>Standard methods have fixed indexes. Custom methods are assigned an index when a route is
+ * registered for them for the first time, at most {@value #MAX_METHODS} methods are supported. Each router
+ * has its own index of custom methods, shared with the staging routers of its reloads.
+ */
+final class MethodIndex {
+
+  static final int MAX_METHODS = Long.SIZE;
+
+  static final int GET = 0;
+
+  static final int HEAD = 1;
+
+  static final int OPTIONS = 6;
+
+  private static final HttpMethod[] STANDARD_METHODS = {
+      HttpMethod.GET,
+      HttpMethod.HEAD,
+      HttpMethod.POST,
+      HttpMethod.PUT,
+      HttpMethod.PATCH,
+      HttpMethod.DELETE,
+      HttpMethod.OPTIONS,
+      HttpMethod.TRACE,
+      HttpMethod.CONNECT
+  };
+
+  private final Map<String, Integer> customMethods = new ConcurrentHashMap<>();
+
+  private final String[] names = new String[MAX_METHODS];
+
+  /**
+   * Responses of each distinct set of allowed methods.
+   */
+  private final Map<Long, AllowedMethods> allowedMethods = new ConcurrentHashMap<>();
+
+  MethodIndex() {
+    for (int i = 0; i < STANDARD_METHODS.length; i++) {
+      names[i] = STANDARD_METHODS[i].name();
+    }
+  }
+
+  /**
+   * @return the index of {@code method}; or -1 if no route has been registered for the custom method.
+   */
+  int indexOf(HttpMethod method) {
+    for (int i = 0; i < STANDARD_METHODS.length; i++) {
+      if (STANDARD_METHODS[i] == method) {
+        return i;
+      }
+    }
+
+    for (int i = 0; i < STANDARD_METHODS.length; i++) {
+      if (STANDARD_METHODS[i].equals(method)) {
+        return i;
+      }
+    }
+
+    Integer index = customMethods.get(method.name());
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Get the index of {@code method}, a custom method is assigned a new index.
+   */
+  int register(HttpMethod method) {
+    int index = indexOf(method);
+    if (index != -1) {
+      return index;
+    }
+
+    synchronized (customMethods) {
+      return customMethods.computeIfAbsent(method.name(), name -> {
+        int next = STANDARD_METHODS.length + customMethods.size();
+        if (next >= MAX_METHODS) {
+          throw new IllegalArgumentException("Cannot route more than " + MAX_METHODS + " HTTP methods.");
+        }
+        names[next] = name;
+        return next;
+      });
+    }
+  }
+
+  String name(int index) {
+    return names[index];
+  }
+
+  /**
+   * @param methods bitmask of method indexes that have routes on the path.
+   * @return the responses for the path, the {@code Allow} header of each distinct set of methods is built once.
+   */
+  AllowedMethods allowed(long methods) {
+    if ((methods & (1L << GET)) != 0) {
+      methods |= 1L << HEAD;
+    }
+    methods |= 1L << OPTIONS;
+
+    AllowedMethods allowed = allowedMethods.get(methods);
+    if (allowed == null) {
+      StringBuilder allow = new StringBuilder();
+      for (int i = 0; i < MAX_METHODS; i++) {
+        if ((methods & (1L << i)) != 0) {
+          allow.append(allow.length() == 0 ? "" : ", ").append(name(i));
+        }
+      }
+      allowed = allowedMethods.computeIfAbsent(methods, k -> new AllowedMethods(allow.toString()));
+    }
+    return allowed;
+  }
+
+}
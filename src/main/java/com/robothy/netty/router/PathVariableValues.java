@@ -0,0 +1,52 @@
+package com.robothy.netty.router;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Values of a path variable. The router only records where each value is in the request path,
+ * a value is cut out of the path when it is read for the first time.
+ */
+final class PathVariableValues extends AbstractList<String> implements RandomAccess {
+
+  private final String path;
+
+  private final int[] bounds;
+
+  private String[] values;
+
+  private int size;
+
+  PathVariableValues(String path, int capacity) {
+    this.path = path;
+    this.bounds = new int[capacity << 1];
+  }
+
+  void add(int start, int end) {
+    bounds[size << 1] = start;
+    bounds[(size << 1) + 1] = end;
+    size++;
+  }
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    if (values == null) {
+      values = new String[size];
+    }
+    String value = values[index];
+    if (value == null) {
+      value = values[index] = path.substring(bounds[index << 1], bounds[(index << 1) + 1]);
+    }
+    return value;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+}
@@ -0,0 +1,457 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+
+/**
+ * A compiled index of registered path patterns.
+ *
+ * <p>Patterns made of literal segments and whole-segment captures such as {@code /user/{id}} are
+ * indexed in a trie keyed by path segments, so the cost of a lookup depends on the depth of the
+ * request path rather than the number of routes. Other patterns (regex captures, wildcards,
+ * {@code **}, {@code {*var}}, partial-segment captures) are attached to the node of their longest
+ * literal prefix and are evaluated by {@link PathPattern} only when a request reaches that node.
+ *
+ * <p>Every pattern keeps its rank in {@link SpringWebRouter.ParsedPattern#COMPARATOR} order and
+ * the path matched candidate with the lowest rank that also passes its header and parameter
+ * matchers wins, which is the same result as scanning the sorted patterns one by one. Variants of
+ * a fully indexed pattern are dispatched by a {@link ConditionIndex}.
+ *
+ * <p>Request paths the trie cannot split without decoding (percent-encoded characters, matrix
+ * variables, empty segments) fall back to the sorted scan.
+ */
+final class PatternTrie {
+
+  private final Node root = new Node();
+
+  /**
+   * Entries of each method index in rank order.
+   */
+  private final Entry[][] entries;
+
+  /**
+   * @param sortedPatterns patterns of each method sorted by {@linkplain SpringWebRouter.ParsedPattern#COMPARATOR}.
+   * @param methodIndex indexes of the methods of the router.
+   */
+  PatternTrie(Map<HttpMethod, SpringWebRouter.ParsedPattern[]> sortedPatterns, MethodIndex methodIndex) {
+    int size = 0;
+    for (HttpMethod method : sortedPatterns.keySet()) {
+      size = Math.max(size, methodIndex.register(method) + 1);
+    }
+
+    this.entries = new Entry[size][];
+    sortedPatterns.forEach((httpMethod, patterns) -> {
+      int method = methodIndex.register(httpMethod);
+      entries[method] = new Entry[patterns.length];
+      for (int rank = 0; rank < patterns.length; rank++) {
+        Entry entry = new Entry(patterns[rank], method, rank);
+        entries[method][rank] = entry;
+        add(entry);
+      }
+    });
+    compile(root);
+  }
+
+  /**
+   * Find the best matched pattern registered under {@code method} for the request.
+   *
+   * @param request HTTP request.
+   * @param method method index.
+   * @return the matched route; or {@code null} if no pattern matches.
+   */
+  RouteMatch match(HttpRequest request, int method) {
+    if (method >= entries.length || entries[method] == null) {
+      return null;
+    }
+
+    String path = request.getPath();
+    String[] segments = splitRequestPath(path);
+    if (segments == null) {
+      return scan(request, method);
+    }
+
+    boolean trailingSlash = path.length() > 1 && path.charAt(path.length() - 1) == '/';
+    List<Entry> candidates = new ArrayList<>(4);
+    int firstRank = collect(root, request, segments, 0, trailingSlash, method, candidates);
+
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      for (Entry entry : node.complexEntries) {
+        if (entry.method == method) {
+          candidates.add(entry);
+        }
+      }
+      node = i < segments.length ? node.literalChildren.get(segments[i]) : null;
+    }
+
+    if (candidates.size() > 1) {
+      candidates.sort(null);
+    }
+
+    PathContainer pathContainer = null;
+    boolean first = true;
+    for (Entry candidate : candidates) {
+      Map<String, String> variables;
+      if (candidate.complex) {
+        if (pathContainer == null) {
+          pathContainer = PathContainer.parsePath(path);
+        }
+        PathPattern.PathMatchInfo pathMatchInfo = candidate.pattern.pathPattern.matchAndExtract(pathContainer);
+        if (pathMatchInfo == null) {
+          continue;
+        }
+        variables = pathMatchInfo.getUriVariables();
+      } else {
+        variables = candidate.extract(segments);
+      }
+
+      if (candidate.pattern.accept(request)) {
+        // Variants skipped by the condition index also matched the path if they rank before the candidate.
+        return candidate.match(first && candidate.rank <= firstRank, variables);
+      }
+      first = false;
+    }
+    return null;
+  }
+
+  /**
+   * Find methods that have patterns matching the request path.
+   *
+   * @return bitmask of method indexes.
+   */
+  long allowedMethods(HttpRequest request) {
+    String path = request.getPath();
+    String[] segments = splitRequestPath(path);
+    PathContainer pathContainer = null;
+    long methods = 0;
+    if (segments == null) {
+      pathContainer = PathContainer.parsePath(path);
+      for (Entry[] methodEntries : entries) {
+        for (int i = 0; methodEntries != null && i < methodEntries.length; i++) {
+          if (methodEntries[i].pattern.pathPattern.matches(pathContainer)) {
+            methods |= 1L << methodEntries[i].method;
+            break;
+          }
+        }
+      }
+      return methods;
+    }
+
+    boolean trailingSlash = path.length() > 1 && path.charAt(path.length() - 1) == '/';
+    methods = collectMethods(root, segments, 0, trailingSlash);
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      for (Entry entry : node.complexEntries) {
+        if ((methods & (1L << entry.method)) == 0) {
+          if (pathContainer == null) {
+            pathContainer = PathContainer.parsePath(path);
+          }
+          if (entry.pattern.pathPattern.matches(pathContainer)) {
+            methods |= 1L << entry.method;
+          }
+        }
+      }
+      node = i < segments.length ? node.literalChildren.get(segments[i]) : null;
+    }
+    return methods;
+  }
+
+  private RouteMatch scan(HttpRequest request, int method) {
+    PathContainer pathContainer = PathContainer.parsePath(request.getPath());
+    boolean first = true;
+    for (Entry entry : entries[method]) {
+      PathPattern.PathMatchInfo pathMatchInfo = entry.pattern.pathPattern.matchAndExtract(pathContainer);
+      if (pathMatchInfo != null) {
+        if (entry.pattern.accept(request)) {
+          return entry.match(first, pathMatchInfo.getUriVariables());
+        }
+        first = false;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Collect candidates of fully indexed patterns that match the path.
+   *
+   * @return the lowest rank of the patterns that match the path, including those skipped by
+   *     the condition indexes; or {@link Integer#MAX_VALUE} if no pattern matches the path.
+   */
+  private int collect(Node node, HttpRequest request, String[] segments, int depth, boolean trailingSlash,
+                      int method, List<Entry> candidates) {
+    if (depth == segments.length) {
+      int firstRank = Integer.MAX_VALUE;
+      if ((node.terminalMethods & (1L << method)) != 0) {
+        ConditionIndex<Entry> variants = node.variants[method];
+        for (Entry entry : variants.entries()) {
+          if (!entry.trailingSlash || trailingSlash) {
+            firstRank = entry.rank;
+            break;
+          }
+        }
+        for (Entry entry : variants.candidates(request)) {
+          if (!entry.trailingSlash || trailingSlash) {
+            candidates.add(entry);
+          }
+        }
+      }
+      return firstRank;
+    }
+
+    int firstRank = Integer.MAX_VALUE;
+    Node literalChild = node.literalChildren.get(segments[depth]);
+    if (literalChild != null) {
+      firstRank = collect(literalChild, request, segments, depth + 1, trailingSlash, method, candidates);
+    }
+    if (node.captureChild != null) {
+      firstRank = Math.min(firstRank,
+          collect(node.captureChild, request, segments, depth + 1, trailingSlash, method, candidates));
+    }
+    return firstRank;
+  }
+
+  private long collectMethods(Node node, String[] segments, int depth, boolean trailingSlash) {
+    if (depth == segments.length) {
+      long methods = 0;
+      for (Entry entry : node.terminalEntries) {
+        if (!entry.trailingSlash || trailingSlash) {
+          methods |= 1L << entry.method;
+        }
+      }
+      return methods;
+    }
+
+    long methods = 0;
+    Node literalChild = node.literalChildren.get(segments[depth]);
+    if (literalChild != null) {
+      methods |= collectMethods(literalChild, segments, depth + 1, trailingSlash);
+    }
+    if (node.captureChild != null) {
+      methods |= collectMethods(node.captureChild, segments, depth + 1, trailingSlash);
+    }
+    return methods;
+  }
+
+  private void add(Entry entry) {
+    String pattern = entry.pattern.pathPattern.getPatternString();
+    Node node = root;
+    if (!pattern.startsWith("/") || pattern.contains("//")) {
+      entry.complex = true;
+      node.complexEntries.add(entry);
+      return;
+    }
+
+    String[] segments = splitPattern(pattern);
+    List<String> variableNames = new ArrayList<>();
+    List<Integer> variableSegments = new ArrayList<>();
+    Node literalPrefix = root;
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      if (isLiteral(segment)) {
+        node = node.literalChildren.computeIfAbsent(segment, k -> new Node());
+        if (variableNames.isEmpty()) {
+          literalPrefix = node;
+        }
+      } else if (isCapture(segment)) {
+        if (node.captureChild == null) {
+          node.captureChild = new Node();
+        }
+        node = node.captureChild;
+        variableNames.add(segment.substring(1, segment.length() - 1));
+        variableSegments.add(i);
+      } else {
+        entry.complex = true;
+        literalPrefix.complexEntries.add(entry);
+        return;
+      }
+    }
+
+    entry.trailingSlash = pattern.length() > 1 && pattern.endsWith("/");
+    entry.variableNames = variableNames.toArray(new String[0]);
+    entry.variableSegments = variableSegments.stream().mapToInt(Integer::intValue).toArray();
+    node.terminalEntries.add(entry);
+    node.terminalMethods |= 1L << entry.method;
+  }
+
+  /**
+   * Build the condition indexes of terminal entries of each method.
+   */
+  @SuppressWarnings("unchecked")
+  private static void compile(Node node) {
+    if (!node.terminalEntries.isEmpty()) {
+      node.variants = new ConditionIndex[Long.SIZE - Long.numberOfLeadingZeros(node.terminalMethods)];
+      for (int method = 0; method < node.variants.length; method++) {
+        if ((node.terminalMethods & (1L << method)) != 0) {
+          List<Entry> entries = new ArrayList<>();
+          for (Entry entry : node.terminalEntries) {
+            if (entry.method == method) {
+              entries.add(entry);
+            }
+          }
+          node.variants[method] = new ConditionIndex<>(entries.toArray(new Entry[0]), e -> e.pattern.conditions());
+        }
+      }
+    }
+
+    node.literalChildren.values().forEach(PatternTrie::compile);
+    if (node.captureChild != null) {
+      compile(node.captureChild);
+    }
+  }
+
+  private static boolean isLiteral(String segment) {
+    for (int i = 0; i < segment.length(); i++) {
+      switch (segment.charAt(i)) {
+        case '{':
+        case '}':
+        case '*':
+        case '?':
+        case '%':
+        case ';':
+        case '\\':
+          return false;
+        default:
+      }
+    }
+    return true;
+  }
+
+  private static boolean isCapture(String segment) {
+    if (segment.length() < 3 || segment.charAt(0) != '{' || segment.charAt(segment.length() - 1) != '}'
+        || segment.charAt(1) == '*') {
+      return false;
+    }
+    return isLiteral(segment.substring(1, segment.length() - 1)) && segment.indexOf(':') == -1;
+  }
+
+  private static String[] splitPattern(String pattern) {
+    String trimmed = pattern.substring(1, pattern.endsWith("/") && pattern.length() > 1 ? pattern.length() - 1 : pattern.length());
+    return trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+  }
+
+  /**
+   * Split the request path into segments.
+   *
+   * @return path segments; or {@code null} if the path must be matched via {@linkplain PathPattern}.
+   */
+  private static String[] splitRequestPath(String path) {
+    if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+      return null;
+    }
+
+    int end = path.length();
+    if (end > 1 && path.charAt(end - 1) == '/') {
+      end--;
+      if (path.charAt(end - 1) == '/') {
+        return null;
+      }
+    }
+
+    int count = end > 1 ? 1 : 0;
+    for (int i = 1; i < end; i++) {
+      char c = path.charAt(i);
+      if (c == '%' || c == ';') {
+        return null;
+      }
+      if (c == '/') {
+        if (path.charAt(i - 1) == '/') {
+          return null;
+        }
+        count++;
+      }
+    }
+
+    String[] segments = new String[count];
+    int start = 1;
+    for (int i = 0; i < count; i++) {
+      int next = path.indexOf('/', start);
+      if (next == -1 || next > end) {
+        next = end;
+      }
+      segments[i] = path.substring(start, next);
+      start = next + 1;
+    }
+    return segments;
+  }
+
+  private static final class Node {
+
+    private final Map<String, Node> literalChildren = new HashMap<>();
+
+    private Node captureChild;
+
+    /**
+     * Bitmask of the indexes of methods that have terminal entries.
+     */
+    private long terminalMethods;
+
+    /**
+     * Patterns that are fully indexed and end at this node.
+     */
+    private final List<Entry> terminalEntries = new ArrayList<>(1);
+
+    /**
+     * Terminal entries indexed by method.
+     */
+    private ConditionIndex<Entry>[] variants;
+
+    /**
+     * Patterns whose longest literal prefix ends at this node.
+     */
+    private final List<Entry> complexEntries = new ArrayList<>(0);
+  }
+
+  private static final class Entry implements Comparable<Entry> {
+
+    private final SpringWebRouter.ParsedPattern pattern;
+
+    private final int method;
+
+    private final int rank;
+
+    private boolean complex;
+
+    private boolean trailingSlash;
+
+    private String[] variableNames;
+
+    private int[] variableSegments;
+
+    Entry(SpringWebRouter.ParsedPattern pattern, int method, int rank) {
+      this.pattern = pattern;
+      this.method = method;
+      this.rank = rank;
+    }
+
+    Map<String, String> extract(String[] segments) {
+      if (variableNames.length == 0) {
+        return Collections.emptyMap();
+      }
+      Map<String, String> variables = new HashMap<>(variableNames.length * 2);
+      for (int i = 0; i < variableNames.length; i++) {
+        variables.put(variableNames[i], segments[variableSegments[i]]);
+      }
+      return variables;
+    }
+
+    /**
+     * @param first whether no candidate ranked before this entry matched the request path.
+     */
+    RouteMatch match(boolean first, Map<String, String> variables) {
+      return RouteMatch.of(pattern.handler(), first && !pattern.conditional(), variables);
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      return Integer.compare(rank, o.rank);
+    }
+  }
+
+}
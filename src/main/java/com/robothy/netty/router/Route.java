@@ -1,11 +1,16 @@
 package com.robothy.netty.router;
 
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
 import io.netty.handler.codec.http.HttpMethod;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 @Getter
@@ -15,18 +20,75 @@ public class Route {
 
   private String path;
 
+  /**
+   * The handler, tagged with the {@link #executionPolicy} and the {@link #concurrencyLimiter} if the route has them.
+   */
   private HttpRequestHandler handler;
 
+  /**
+   * Where the handler runs; {@code null} for the default of the server.
+   */
+  private ExecutionPolicy executionPolicy;
+
+  /**
+   * Limits the requests of this route handled at once; {@code null} if the route is not limited.
+   */
+  private ConcurrencyLimiter concurrencyLimiter;
+
   private Function<Map<CharSequence, String>, Boolean> headerMatcher;
 
   private Function<Map<CharSequence, List<String>>, Boolean> paramMatcher;
 
+  @Getter(AccessLevel.NONE)
+  private List<RouteCondition> conditions = Collections.emptyList();
+
   private String trimPath;
 
   private Route() {
 
   }
 
+  /**
+   * Declarative header and parameter conditions.
+   */
+  List<RouteCondition> conditions() {
+    return conditions;
+  }
+
+  /**
+   * Whether the route has a header matcher or a header condition.
+   */
+  boolean hasHeaderCondition() {
+    return headerMatcher != null || conditions.stream().anyMatch(c -> c.source() == RouteCondition.Source.HEADER);
+  }
+
+  /**
+   * Whether the route has a parameter matcher or a parameter condition.
+   */
+  boolean hasParamCondition() {
+    return paramMatcher != null || conditions.stream().anyMatch(c -> c.source() == RouteCondition.Source.PARAM);
+  }
+
+  /**
+   * Whether the route accepts requests depending on their headers or parameters.
+   */
+  boolean conditional() {
+    return headerMatcher != null || paramMatcher != null || !conditions.isEmpty();
+  }
+
+  /**
+   * Whether the request satisfies the conditions, the header matcher and the parameter matcher.
+   */
+  boolean accept(HttpRequest request) {
+    for (int i = 0; i < conditions.size(); i++) {
+      if (!conditions.get(i).test(request)) {
+        return false;
+      }
+    }
+    return (headerMatcher == null || headerMatcher.apply(request.getHeaders()))
+        && (paramMatcher == null || paramMatcher.apply(request.getParams()));
+  }
+
   public Route headerMather(Function<Map<CharSequence, String>, Boolean> headerMatcher) {
     this.headerMatcher = headerMatcher;
     return this;
@@ -47,12 +109,13 @@ public class Route {
     }
     Route route = (Route) o;
     return method.equals(route.method) && trimPath.equals(route.trimPath) &&
-        Objects.equals(headerMatcher, route.headerMatcher) && Objects.equals(paramMatcher, route.paramMatcher);
+        Objects.equals(headerMatcher, route.headerMatcher) && Objects.equals(paramMatcher, route.paramMatcher) &&
+        conditions.equals(route.conditions);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(method, trimPath, headerMatcher, paramMatcher);
+    return Objects.hash(method, trimPath, headerMatcher, paramMatcher, conditions);
   }
 
   public static Builder builder() {
@@ -63,6 +126,8 @@ public class Route {
 
     Route propHolder = new Route();
 
+    private final List<RouteCondition> conditions = new ArrayList<>();
+
     public Builder method(HttpMethod method) {
       propHolder.method = method;
       return this;
@@ -83,11 +148,71 @@ public class Route {
       return this;
     }
 
+    /**
+     * Match requests whose header {@code name} equals one of {@code values}. Routes of the same method
+     * and path that compare the same header with fixed values are dispatched by a hash lookup.
+     *
+     * @param name case-insensitive header name.
+     * @param values accepted values.
+     */
+    public Builder header(String name, String... values) {
+      conditions.add(RouteCondition.header(name, values));
+      return this;
+    }
+
+    /**
+     * Match requests that have the header {@code name}.
+     *
+     * @param name case-insensitive header name.
+     */
+    public Builder headerPresent(String name) {
+      conditions.add(RouteCondition.header(name, null));
+      return this;
+    }
+
+    /**
+     * Match requests whose first value of the query parameter {@code name} equals one of {@code values}.
+     *
+     * @param name parameter name.
+     * @param values accepted values.
+     */
+    public Builder param(String name, String... values) {
+      conditions.add(RouteCondition.param(name, values));
+      return this;
+    }
+
+    /**
+     * Match requests that have the query parameter {@code name}.
+     *
+     * @param name parameter name.
+     */
+    public Builder paramPresent(String name) {
+      conditions.add(RouteCondition.param(name, null));
+      return this;
+    }
+
     public Builder handler(HttpRequestHandler handler) {
       propHolder.handler = handler;
       return this;
     }
 
+    /**
+     * Run the handler inline on the event loop or on the handler executor of the server. Without a policy,
+     * handlers run on the handler executor if the server has one.
+     */
+    public Builder executionPolicy(ExecutionPolicy executionPolicy) {
+      propHolder.executionPolicy = executionPolicy;
+      return this;
+    }
+
+    /**
+     * Limit the requests of this route handled at once, in addition to the limiter of the router.
+     */
+    public Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+      propHolder.concurrencyLimiter = concurrencyLimiter;
+      return this;
+    }
+
     private String trimPath(String path) {
       String[] segments = path.split("/");
       StringBuilder result = new StringBuilder();
@@ -108,9 +233,17 @@ public class Route {
       Route route = new Route();
       route.method = propHolder.method;
       route.path = propHolder.path;
-      route.handler = propHolder.handler;
+      route.executionPolicy = propHolder.executionPolicy;
+      route.concurrencyLimiter = propHolder.concurrencyLimiter;
+      route.handler = route.executionPolicy == null ? propHolder.handler
+          : route.executionPolicy.apply(propHolder.handler);
+      if (route.concurrencyLimiter != null) {
+        route.handler = route.concurrencyLimiter.apply(route.handler);
+      }
       route.paramMatcher = propHolder.paramMatcher;
       route.headerMatcher = propHolder.headerMatcher;
+      route.conditions = conditions.isEmpty() ? Collections.emptyList()
+          : Collections.unmodifiableList(new ArrayList<>(conditions));
       route.trimPath = trimPath(route.path);
       return route;
     }
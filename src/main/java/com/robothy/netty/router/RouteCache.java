@@ -0,0 +1,160 @@
+package com.robothy.netty.router;
+
+import io.netty.handler.codec.http.HttpMethod;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache from (method, path) to the route resolved for them.
+ *
+ * <p>Lookups don't take locks. When the cache is full, entries are evicted with the CLOCK
+ * (second chance) policy, which approximates LRU: an entry read since the hand last passed it
+ * gets another round, otherwise it is removed.
+ *
+ * <p>Routes resolved with header matchers or parameter matchers are never cached because the same
+ * method and path may resolve to another route for other requests. Static resources and the not
+ * found handler are not cached either.
+ */
+public final class RouteCache {
+
+  private final int maximumSize;
+
+  private volatile Table table = new Table();
+
+  private final LongAdder hitCount = new LongAdder();
+
+  private final LongAdder missCount = new LongAdder();
+
+  private final LongAdder evictionCount = new LongAdder();
+
+  RouteCache(int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("The maximum size of the route cache must be positive.");
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * The table new entries should be put in. Entries resolved from a table that has been
+   * invalidated are put in the discarded table.
+   */
+  Table table() {
+    return table;
+  }
+
+  RouteMatch get(Table table, HttpMethod method, String path) {
+    Map<String, Entry> entries = table.entries.get(method);
+    Entry entry = entries == null ? null : entries.get(path);
+    if (entry == null) {
+      missCount.increment();
+      return null;
+    }
+
+    if (!entry.referenced) {
+      entry.referenced = true;
+    }
+    hitCount.increment();
+    return entry.match;
+  }
+
+  void put(Table table, HttpMethod method, String path, RouteMatch match) {
+    Entry entry = new Entry(method, path, match.detach());
+    if (table.entries.computeIfAbsent(method, k -> new ConcurrentHashMap<>()).putIfAbsent(path, entry) != null) {
+      return;
+    }
+
+    table.clock.offer(entry);
+    if (table.size.incrementAndGet() > maximumSize) {
+      evict(table);
+    }
+  }
+
+  private void evict(Table table) {
+    Entry victim;
+    while ((victim = table.clock.poll()) != null) {
+      if (victim.referenced) {
+        victim.referenced = false;
+        table.clock.offer(victim);
+        continue;
+      }
+
+      table.entries.get(victim.method).remove(victim.path, victim);
+      table.size.decrementAndGet();
+      evictionCount.increment();
+      return;
+    }
+  }
+
+  /**
+   * Discard all entries.
+   */
+  void invalidateAll() {
+    this.table = new Table();
+  }
+
+  /**
+   * @return the maximum number of cached routes.
+   */
+  public int maximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * @return the number of cached routes.
+   */
+  public int size() {
+    return table.size.get();
+  }
+
+  /**
+   * @return the number of lookups that found a cached route.
+   */
+  public long hitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * @return the number of lookups that didn't find a cached route.
+   */
+  public long missCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * @return the number of routes evicted because the cache was full.
+   */
+  public long evictionCount() {
+    return evictionCount.sum();
+  }
+
+  static final class Table {
+
+    private final Map<HttpMethod, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+  }
+
+  private static final class Entry {
+
+    private final HttpMethod method;
+
+    private final String path;
+
+    private final RouteMatch match;
+
+    private volatile boolean referenced;
+
+    Entry(HttpMethod method, String path, RouteMatch match) {
+      this.method = method;
+      this.path = path;
+      this.match = match;
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A declarative condition on a request header or a query parameter. Unlike the matcher functions,
+ * conditions that compare with fixed values can be indexed by routers, see {@link ConditionIndex}.
+ */
+final class RouteCondition {
+
+  enum Source {
+    HEADER,
+    PARAM
+  }
+
+  private final Source source;
+
+  private final String name;
+
+  /**
+   * Accepted values; {@code null} if the condition only requires the header or parameter to be present.
+   */
+  private final Set<String> values;
+
+  private RouteCondition(Source source, String name, String[] values) {
+    Objects.requireNonNull(name, "The name cannot be null.");
+    if (values != null) {
+      if (values.length == 0) {
+        throw new IllegalArgumentException("At least one value is required for '" + name + "'.");
+      }
+      for (String value : values) {
+        Objects.requireNonNull(value, "The value of '" + name + "' cannot be null.");
+      }
+    }
+    this.source = source;
+    this.name = source == Source.HEADER ? name.toLowerCase(Locale.ROOT) : name;
+    this.values = values == null ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+  }
+
+  /**
+   * The request has the header and its value is one of {@code values}; or the header is present
+   * if {@code values} is {@code null}. Header names are case-insensitive.
+   */
+  static RouteCondition header(String name, String[] values) {
+    return new RouteCondition(Source.HEADER, name, values);
+  }
+
+  /**
+   * The first value of the query parameter is one of {@code values}; or the parameter is present
+   * if {@code values} is {@code null}.
+   */
+  static RouteCondition param(String name, String[] values) {
+    return new RouteCondition(Source.PARAM, name, values);
+  }
+
+  Source source() {
+    return source;
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * @return accepted values; or {@code null} if the condition only checks presence.
+   */
+  Set<String> values() {
+    return values;
+  }
+
+  /**
+   * Whether the condition compares with fixed values.
+   */
+  boolean indexable() {
+    return values != null;
+  }
+
+  boolean test(HttpRequest request) {
+    if (values == null) {
+      return source == Source.HEADER ? request.getHeaders().containsKey(name) : request.getParams().containsKey(name);
+    }
+    String value = value(request);
+    return value != null && values.contains(value);
+  }
+
+  /**
+   * @return the header value or the first value of the parameter; {@code null} if absent.
+   */
+  String value(HttpRequest request) {
+    if (source == Source.HEADER) {
+      return request.getHeaders().get(name);
+    }
+    List<String> params = request.getParams().get(name);
+    return params == null || params.isEmpty() ? null : params.get(0);
+  }
+
+  /**
+   * Whether both conditions look up the same header or parameter.
+   */
+  boolean sameKey(RouteCondition other) {
+    return source == other.source && name.equals(other.name);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    RouteCondition that = (RouteCondition) o;
+    return source == that.source && name.equals(that.name) && Objects.equals(values, that.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(source, name, values);
+  }
+
+  @Override
+  public String toString() {
+    return source.name().toLowerCase(Locale.ROOT) + " " + name + (values == null ? "" : " in " + values);
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpRequestHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A route resolved by a router: the handler and the path variables extracted from the request path.
+ */
+final class RouteMatch {
+
+  private static final String[] NO_VARIABLE_NAMES = new String[0];
+
+  @SuppressWarnings("unchecked")
+  private static final List<String>[] NO_VARIABLE_VALUES = new List[0];
+
+  private final HttpRequestHandler handler;
+
+  private final boolean cacheable;
+
+  private final String[] variableNames;
+
+  private final List<String>[] variableValues;
+
+  /**
+   * @param handler the matched handler.
+   * @param cacheable whether the same method and path always resolve to this match,
+   *                  i.e. no header matchers or parameter matchers took part in the resolution.
+   * @param variableNames path variable names.
+   * @param variableValues values of each path variable.
+   */
+  RouteMatch(HttpRequestHandler handler, boolean cacheable, String[] variableNames, List<String>[] variableValues) {
+    this.handler = handler;
+    this.cacheable = cacheable;
+    this.variableNames = variableNames;
+    this.variableValues = variableValues;
+  }
+
+  RouteMatch(HttpRequestHandler handler, boolean cacheable) {
+    this(handler, cacheable, NO_VARIABLE_NAMES, NO_VARIABLE_VALUES);
+  }
+
+  /**
+   * Create a match from variables extracted by a {@linkplain org.springframework.web.util.pattern.PathPattern}.
+   */
+  static RouteMatch of(HttpRequestHandler handler, boolean cacheable, Map<String, String> variables) {
+    if (variables.isEmpty()) {
+      return new RouteMatch(handler, cacheable);
+    }
+
+    String[] names = new String[variables.size()];
+    @SuppressWarnings("unchecked")
+    List<String>[] values = new List[variables.size()];
+    int i = 0;
+    for (Map.Entry<String, String> variable : variables.entrySet()) {
+      names[i] = variable.getKey();
+      values[i++] = Collections.singletonList(variable.getValue());
+    }
+    return new RouteMatch(handler, cacheable, names, values);
+  }
+
+  HttpRequestHandler handler() {
+    return handler;
+  }
+
+  boolean cacheable() {
+    return cacheable;
+  }
+
+  /**
+   * Add path variables to the parameters of {@code request}. Values of a path variable are appended to
+   * the query parameter with the same name. The query string is left undecoded if there is no path variable.
+   */
+  void putPathVariables(HttpRequest request) {
+    if (variableNames.length == 0) {
+      return;
+    }
+
+    Map<CharSequence, List<String>> params = request.getParams();
+    if (params == null) {
+      return;
+    }
+
+    for (int i = 0; i < variableNames.length; i++) {
+      List<String> values = params.get(variableNames[i]);
+      if (values == null) {
+        params.put(variableNames[i], variableValues[i]);
+      } else {
+        values.addAll(variableValues[i]);
+      }
+    }
+  }
+
+  /**
+   * Create a copy that doesn't reference the request it was resolved from, so that it can
+   * be shared by requests with the same method and path.
+   */
+  RouteMatch detach() {
+    if (variableNames.length == 0) {
+      return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String>[] values = new List[variableValues.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Collections.unmodifiableList(new ArrayList<>(variableValues[i]));
+    }
+    return new RouteMatch(handler, cacheable, variableNames, values);
+  }
+
+}
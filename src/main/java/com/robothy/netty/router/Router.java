@@ -1,10 +1,13 @@
 package com.robothy.netty.router;
 
 
+import com.robothy.netty.http.AsyncRequestHandler;
+import com.robothy.netty.http.ExecutionPolicy;
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import java.util.function.Consumer;
 
 /**
  * A Router is a S3RequestHandler container. The route path must starts with a '/'.
@@ -42,6 +45,56 @@ public interface Router {
     return route(rule);
   }
 
+  /**
+   * Register a handler that runs as {@code executionPolicy} says, see {@link ExecutionPolicy}.
+   *
+   * @return this
+   */
+  default Router route(HttpMethod method, String path, ExecutionPolicy executionPolicy, HttpRequestHandler handler) {
+    Route rule = Route.builder()
+        .method(method)
+        .path(path)
+        .executionPolicy(executionPolicy)
+        .handler(handler)
+        .build();
+    return route(rule);
+  }
+
+  /**
+   * Register an asynchronous handler; the response is written when the stage returned by the handler
+   * completes.
+   *
+   * @return this
+   */
+  default Router routeAsync(HttpMethod method, String path, AsyncRequestHandler handler) {
+    return route(method, path, handler);
+  }
+
+  /**
+   * Compile registered routes into an immutable, read-optimized routing table ahead of the first request.
+   * A frozen router rejects {@linkplain #route(Route)}, its routes can only be replaced via
+   * {@linkplain #reload(Consumer)}.
+   *
+   * <p>Matching never takes locks. Before a router is frozen, a routing table is compiled on the first
+   * match after routes changed.
+   *
+   * @return this.
+   */
+  Router freeze();
+
+  /**
+   * Replace all routes of this router while it is serving requests. Routes registered on the router
+   * passed to {@code routes} are compiled into a new routing table first, then the new table replaces
+   * the current one atomically, so a request is matched either against the old routes or the new routes.
+   *
+   * <p>Only routes are taken from the router passed to {@code routes}; the not found handler, static
+   * resources and exception handlers of this router are kept.
+   *
+   * @param routes registers the new routes.
+   * @return this.
+   */
+  Router reload(Consumer<Router> routes);
+
   /**
    * Set resource not found handler.
    *
@@ -69,6 +122,50 @@ public interface Router {
    */
   Router staticResource(String rootPath);
 
+  /**
+   * Serve static resources under {@code rootPath} with {@code options}. With
+   * {@linkplain StaticResourceOptions#isIndexed() indexed} resources, the router lists the resources
+   * once and matches requests from memory, requests that miss both routes and static resources
+   * take no file system or class loader access. The index of a directory follows file changes if
+   * {@linkplain StaticResourceOptions#isWatch() watch} is enabled.
+   *
+   * @param rootPath static resources root directory or resource path.
+   * @param options static resource options.
+   * @return this.
+   */
+  Router staticResource(String rootPath, StaticResourceOptions options);
+
+  /**
+   * Cache the routes resolved for at most {@code maximumSize} distinct (method, path) pairs,
+   * so that requests to hot paths skip route matching. The cache is invalidated whenever routes,
+   * static resources or the not found handler change.
+   *
+   * <p>Routes with header matchers or parameter matchers are not cached.
+   *
+   * @param maximumSize the maximum number of cached routes; {@code 0} disables the cache.
+   * @return this.
+   */
+  Router routeCache(int maximumSize);
+
+  /**
+   * @return the route cache with its statistics; or {@code null} if the route cache is disabled.
+   */
+  RouteCache routeCache();
+
+  /**
+   * Limit the requests handled at once by all connections using this router, see {@link ConcurrencyLimiter}.
+   * Routes may have their own limiters in addition.
+   *
+   * @param limiter the limiter; {@code null} to remove the limit.
+   * @return this.
+   */
+  Router concurrencyLimit(ConcurrencyLimiter limiter);
+
+  /**
+   * @return the limiter of all requests; or {@code null} if requests are not limited.
+   */
+  ConcurrencyLimiter concurrencyLimiter();
+
   /**
    * Set a handler for exceptions with {@code exceptionType}.
    *
@@ -93,4 +190,16 @@ public interface Router {
    */
   HttpRequestHandler match(HttpRequest request);
 
+  /**
+   * Like {@link #match(HttpRequest)}, for callers on the event loop: when no route matches and finding a static
+   * resource may block, e.g. on the classpath or the file system, return a handler that finishes the match
+   * where it runs, and handles the request with the static resource, the {@code 405} or the not found handler.
+   *
+   * @param request HTTP request.
+   * @return a matched handler, or a handler that finishes the match.
+   */
+  default HttpRequestHandler matchNonBlocking(HttpRequest request) {
+    return match(request);
+  }
+
 }
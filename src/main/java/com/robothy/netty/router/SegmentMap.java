@@ -0,0 +1,94 @@
+package com.robothy.netty.router;
+
+/**
+ * An open addressing hash table keyed by path segments. A segment can be looked up by a region of the
+ * request path, so matching doesn't need to cut the path into Strings.
+ *
+ * <p>The hash of a region is the same as {@link String#hashCode()} of the segment. The map is only
+ * written while routes are registered.
+ *
+ * @param <V> type of values.
+ */
+final class SegmentMap<V> {
+
+  private String[] keys = new String[8];
+
+  private Object[] values = new Object[8];
+
+  private int size;
+
+  /**
+   * Get the value mapped by {@code path.substring(start, end)}.
+   */
+  V get(CharSequence path, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + path.charAt(i);
+    }
+
+    int mask = keys.length - 1;
+    int len = end - start;
+    for (int idx = spread(hash) & mask; keys[idx] != null; idx = (idx + 1) & mask) {
+      String key = keys[idx];
+      if (key.length() == len && key.hashCode() == hash && regionEquals(key, path, start, len)) {
+        //noinspection unchecked
+        return (V) values[idx];
+      }
+    }
+    return null;
+  }
+
+  V get(String key) {
+    return get(key, 0, key.length());
+  }
+
+  V putIfAbsent(String key, V value) {
+    V existing = get(key);
+    if (existing != null) {
+      return existing;
+    }
+
+    if ((size + 1) * 4 > keys.length * 3) {
+      resize();
+    }
+    insert(key, value);
+    size++;
+    return null;
+  }
+
+  private void insert(String key, Object value) {
+    int mask = keys.length - 1;
+    int idx = spread(key.hashCode()) & mask;
+    while (keys[idx] != null) {
+      idx = (idx + 1) & mask;
+    }
+    keys[idx] = key;
+    values[idx] = value;
+  }
+
+  private void resize() {
+    String[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new String[oldKeys.length * 2];
+    values = new Object[oldValues.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        insert(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean regionEquals(String key, CharSequence path, int start, int len) {
+    for (int i = 0; i < len; i++) {
+      if (key.charAt(i) != path.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
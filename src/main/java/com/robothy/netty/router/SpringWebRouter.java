@@ -3,98 +3,142 @@ package com.robothy.netty.router;
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
 import io.netty.handler.codec.http.HttpMethod;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.TreeSet;
-import java.util.function.Function;
-import org.springframework.http.server.PathContainer;
 import org.springframework.web.util.pattern.PathPattern;
 import org.springframework.web.util.pattern.PathPatternParser;
 import org.springframework.web.util.pattern.PatternParseException;
 
 public class SpringWebRouter extends AbstractRouter {
 
-  private final Map<HttpMethod, TreeSet<ParsedPattern>> parsedPatternMap = new HashMap<>();
+  /**
+   * Registered patterns, only accessed by threads that register routes.
+   */
+  private Map<HttpMethod, TreeSet<ParsedPattern>> parsedPatternMap = new HashMap<>();
+
+  private long registered;
+
+  /**
+   * The published snapshot of {@link #parsedPatternMap}; {@code null} after a route is registered, until the
+   * next match publishes a new one. Registering n routes copies them once rather than once per route.
+   */
+  private volatile RouteTable table;
 
   @Override
-  public Router route(Route rule) {
+  public synchronized Router route(Route rule) {
     Objects.requireNonNull(rule);
-    parsedPatternMap.putIfAbsent(rule.getMethod(), new TreeSet<>(ParsedPattern.COMPARATOR));
+    ensureNotFrozen();
     ParsedPattern parsedPattern = new ParsedPattern();
     try {
       parsedPattern.pathPattern = PathPatternParser.defaultInstance.parse(rule.getPath());
     } catch (PatternParseException e) {
       throw new IllegalArgumentException(e.getMessage());
     }
-    parsedPattern.headersMather = rule.getHeaderMatcher();
-    parsedPattern.paramsMather = rule.getParamMatcher();
-    parsedPattern.handler = rule.getHandler();
-    parsedPatternMap.get(rule.getMethod()).add(parsedPattern);
+    parsedPattern.route = rule;
+    parsedPattern.order = registered++;
+    methodIndex().register(rule.getMethod());
+    TreeSet<ParsedPattern> parsedPatterns = parsedPatternMap
+        .computeIfAbsent(rule.getMethod(), k -> new TreeSet<>(ParsedPattern.COMPARATOR));
+    parsedPatterns.add(parsedPattern);
+    table = null;
+    invalidateRouteCache();
     return this;
   }
 
   @Override
-  public HttpRequestHandler match(HttpRequest request) {
-    return matchAndExtract(request).orElse(notFoundHandler());
+  protected RouteMatch matchRoute(HttpRequest request, int method) {
+    return table().patternTrie().match(request, method);
+  }
+
+  @Override
+  protected long allowedMethods(HttpRequest request) {
+    return table().patternTrie().allowedMethods(request);
   }
 
-  private Optional<HttpRequestHandler> matchAndExtract(HttpRequest request) {
-    PathContainer pathContainer = PathContainer.parsePath(request.getPath());
-    if (!parsedPatternMap.containsKey(request.getMethod())) {
-      return Optional.empty();
+  @Override
+  protected AbstractRouter newRouter() {
+    return new SpringWebRouter();
+  }
+
+  @Override
+  protected void compileRoutes() {
+    table().patternTrie();
+  }
+
+  @Override
+  protected synchronized void replaceRoutes(AbstractRouter source) {
+    SpringWebRouter router = (SpringWebRouter) source;
+    synchronized (router) {
+      Map<HttpMethod, TreeSet<ParsedPattern>> parsedPatterns = new HashMap<>();
+      router.parsedPatternMap.forEach((method, patterns) -> parsedPatterns.put(method, new TreeSet<>(patterns)));
+      this.parsedPatternMap = parsedPatterns;
+      this.registered = router.registered;
+      this.table = router.table();
     }
+  }
+
+  private RouteTable table() {
+    RouteTable table = this.table;
+    return table != null ? table : publish();
+  }
+
+  private synchronized RouteTable publish() {
+    RouteTable table = this.table;
+    if (table == null) {
+      Map<HttpMethod, ParsedPattern[]> patterns = new HashMap<>();
+      parsedPatternMap.forEach((method, parsed) -> patterns.put(method, parsed.toArray(new ParsedPattern[0])));
+      this.table = table = new RouteTable(patterns, methodIndex());
+    }
+    return table;
+  }
+
+  /**
+   * An immutable snapshot of registered patterns. Patterns are compiled when the snapshot
+   * is matched for the first time and never change after they have been published.
+   */
+  private static final class RouteTable {
 
-    for (ParsedPattern parsedPattern : parsedPatternMap.get(request.getMethod())) {
-      PathPattern.PathMatchInfo pathMatchInfo = parsedPattern.pathPattern.matchAndExtract(pathContainer);
-      if (Objects.nonNull(pathMatchInfo)) { // path matched
-        boolean headerMatched = Optional.ofNullable(parsedPattern.headersMather)
-            .map(matcher -> matcher.apply(request.getHeaders())).orElse(true);
-        boolean parameterMatched = Optional.ofNullable(parsedPattern.paramsMather)
-            .map(matcher -> matcher.apply(request.getParams())).orElse(true);
-
-        if (headerMatched && parameterMatched) {
-          Map<CharSequence, List<String>> params = Optional.ofNullable(request.getParams())
-              .orElse(new HashMap<>());
-          pathMatchInfo.getUriVariables()
-              .forEach((key, value) -> {
-                if (params.containsKey(key)) {
-                  params.get(key).add(value);
-                } else {
-                  List<String> values = new ArrayList<>(1);
-                  values.add(value);
-                  params.put(key, values);
-                }
-              });
-          return Optional.of(parsedPattern.handler);
-        }
+    private final Map<HttpMethod, ParsedPattern[]> patterns;
 
+    private final MethodIndex methodIndex;
+
+    private volatile PatternTrie patternTrie;
+
+    RouteTable(Map<HttpMethod, ParsedPattern[]> patterns, MethodIndex methodIndex) {
+      this.patterns = patterns;
+      this.methodIndex = methodIndex;
+    }
+
+    PatternTrie patternTrie() {
+      PatternTrie compiled = this.patternTrie;
+      if (compiled == null) {
+        this.patternTrie = compiled = new PatternTrie(patterns, methodIndex);
       }
+      return compiled;
     }
-    // Lookup static resources.
-    return Optional.ofNullable(staticResourceMatcher().match(request));
   }
 
   static class ParsedPattern {
 
     PathPattern pathPattern;
 
-    Function<Map<CharSequence, String>, Boolean> headersMather;
-
-    Function<Map<CharSequence, List<String>>, Boolean> paramsMather;
+    private Route route;
 
-    private HttpRequestHandler handler;
+    /**
+     * Registration order, breaks ties between patterns with the same priority.
+     */
+    private long order;
 
-    Function<Map<CharSequence, String>, Boolean> headersMather() {
-      return headersMather;
+    Route route() {
+      return route;
     }
 
-    Function<Map<CharSequence, List<String>>, Boolean> paramsMather() {
-      return paramsMather;
+    HttpRequestHandler handler() {
+      return route.getHandler();
     }
 
     public PathPattern pathPattern() {
@@ -102,15 +146,39 @@ public class SpringWebRouter extends AbstractRouter {
     }
 
     /**
-     * Header matcher first;
-     * Then parameter matcher;
-     * Then PathPattern.SPECIFICITY_COMPARATOR.
+     * Declarative header and parameter conditions.
+     */
+    List<RouteCondition> conditions() {
+      return route.conditions();
+    }
+
+    /**
+     * Whether the pattern has header or parameter conditions or matchers.
+     */
+    boolean conditional() {
+      return route.conditional();
+    }
+
+    /**
+     * Whether the request satisfies the header and parameter conditions and matchers.
+     */
+    boolean accept(HttpRequest request) {
+      return route.accept(request);
+    }
+
+    /**
+     * Header conditions first;
+     * Then parameter conditions;
+     * Then PathPattern.SPECIFICITY_COMPARATOR;
+     * Then more declarative conditions;
+     * Then registration order.
      */
     static Comparator<ParsedPattern> COMPARATOR = Comparator
-        .comparing(ParsedPattern::headersMather, Comparator.nullsLast((a, b) -> 0))
-        .thenComparing(ParsedPattern::paramsMather, Comparator.nullsLast((a, b) -> 0))
+        .comparing((ParsedPattern p) -> !p.route.hasHeaderCondition())
+        .thenComparing(p -> !p.route.hasParamCondition())
         .thenComparing(ParsedPattern::pathPattern, PathPattern.SPECIFICITY_COMPARATOR)
-        .thenComparing(ParsedPattern::hashCode); // Avoid override elements in TreeSet.
+        .thenComparing(p -> -p.conditions().size())
+        .thenComparingLong(p -> p.order);
   }
 
 }
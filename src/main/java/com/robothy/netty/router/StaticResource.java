@@ -0,0 +1,250 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequestHandler;
+import com.robothy.netty.utils.MimeTypeUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DateFormatter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Metadata of a static resource, captured when the resource is looked up, and where to read it from.
+ */
+final class StaticResource {
+
+  /**
+   * Content types by file extension.
+   */
+  private static final Map<String, String> CONTENT_TYPES = new ConcurrentHashMap<>();
+
+  private final String path;
+
+  private final long size;
+
+  private final long lastModified;
+
+  private final String contentType;
+
+  /**
+   * The file of a resource in a directory; {@code null} for classpath resources.
+   */
+  private final Path file;
+
+  /**
+   * The URL of a classpath resource; {@code null} for files.
+   */
+  private final URL url;
+
+  /**
+   * The entity tag of this version of the resource; {@code null} if the version is unknown.
+   */
+  private final String etag;
+
+  /**
+   * Last modified time in the HTTP date format; {@code null} if the version is unknown.
+   */
+  private final String lastModifiedDate;
+
+  private final HttpRequestHandler handler;
+
+  private StaticResource(String path, long size, long lastModified, Path file, URL url,
+                         StaticResourceWriter writer, Function<String, StaticResource> siblings) {
+    this.path = path;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.contentType = contentType(path);
+    this.file = file;
+    this.url = url;
+    boolean versioned = size >= 0 && lastModified > 0;
+    this.etag = versioned ? "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"" : null;
+    this.lastModifiedDate = versioned ? DateFormatter.format(new Date(lastModified)) : null;
+    this.handler = writer == null ? null : (request, response) -> writer.write(request, response, this, siblings);
+  }
+
+  /**
+   * A resource in a directory.
+   *
+   * @param path request path of the resource.
+   * @param file the file.
+   * @param writer writes the resource for {@link #handler()}; or {@code null} if the handler is not used.
+   * @param siblings finds other resources by request path, such as precompressed variants; or {@code null}.
+   */
+  static StaticResource file(String path, Path file, StaticResourceWriter writer,
+                             Function<String, StaticResource> siblings) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    return new StaticResource(path, attributes.size(), attributes.lastModifiedTime().toMillis(), file, null,
+        writer, siblings);
+  }
+
+  /**
+   * A resource in the classpath.
+   *
+   * @param path request path of the resource.
+   * @param url URL of the resource.
+   * @param size size of the resource; negative if unknown.
+   * @param writer writes the resource for {@link #handler()}; or {@code null} if the handler is not used.
+   * @param siblings finds other resources by request path, such as precompressed variants; or {@code null}.
+   */
+  static StaticResource url(String path, URL url, long size, long lastModified, StaticResourceWriter writer,
+                            Function<String, StaticResource> siblings) {
+    return new StaticResource(path, size, lastModified, null, url, writer, siblings);
+  }
+
+  /**
+   * @return the request path of the resource.
+   */
+  String path() {
+    return path;
+  }
+
+  /**
+   * @return size of the resource; negative if unknown.
+   */
+  long size() {
+    return size;
+  }
+
+  /**
+   * @return last modified time in milliseconds.
+   */
+  long lastModified() {
+    return lastModified;
+  }
+
+  String contentType() {
+    return contentType;
+  }
+
+  /**
+   * @param encoding the coding of the content; or {@code null}.
+   * @return the entity tag of the content; or {@code null} if the version of the resource is unknown.
+   */
+  String etag(String encoding) {
+    if (encoding == null || etag == null) {
+      return etag;
+    }
+    return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+  }
+
+  /**
+   * @return last modified time in the HTTP date format; or {@code null} if the version is unknown.
+   */
+  String lastModifiedDate() {
+    return lastModifiedDate;
+  }
+
+  /**
+   * @return the file of the resource; or {@code null} if it is a classpath resource.
+   */
+  Path file() {
+    return file;
+  }
+
+  /**
+   * @return the handler that writes the resource to the response.
+   */
+  HttpRequestHandler handler() {
+    return handler;
+  }
+
+  /**
+   * Read the content of the resource into {@code buf}. A resource of a known size is read up to its
+   * size. {@code buf} is released if the read fails.
+   *
+   * @return {@code buf}.
+   */
+  ByteBuf read(ByteBuf buf) throws IOException {
+    try {
+      if (file != null) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+          long position = 0;
+          int read;
+          while (writable(buf) && (read = buf.writeBytes(channel, position, buf.writableBytes())) != -1) {
+            position += read;
+          }
+        }
+      } else {
+        try (InputStream in = url.openStream()) {
+          while (writable(buf) && buf.writeBytes(in, buf.writableBytes()) != -1) {
+            // Read to the end.
+          }
+        }
+      }
+      return buf;
+    } catch (IOException | RuntimeException e) {
+      buf.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Read {@code length} bytes of the file from {@code position} into {@code buf}. {@code buf} is released
+   * if the read fails.
+   *
+   * @return {@code buf}.
+   */
+  ByteBuf read(ByteBuf buf, long position, int length) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (length > 0) {
+        int read = buf.writeBytes(channel, position, length);
+        if (read == -1) {
+          throw new EOFException(file + " is shorter than " + (position + length) + " bytes.");
+        }
+        position += read;
+        length -= read;
+      }
+      return buf;
+    } catch (IOException | RuntimeException e) {
+      buf.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Make room for more content unless {@code buf} already holds the known size of the resource.
+   */
+  private boolean writable(ByteBuf buf) {
+    if (!buf.isWritable()) {
+      if (size >= 0 && buf.readableBytes() >= size) {
+        return false;
+      }
+      buf.ensureWritable(4096);
+    }
+    return true;
+  }
+
+  static String contentType(String fileName) {
+    String name = fileName.substring(fileName.lastIndexOf('/') + 1);
+    int dot = name.lastIndexOf('.');
+    if (dot == -1) {
+      return probeContentType(name);
+    }
+    return CONTENT_TYPES.computeIfAbsent(name.substring(dot + 1), extension -> probeContentType(name));
+  }
+
+  private static String probeContentType(String name) {
+    String contentType = null;
+    try {
+      contentType = Files.probeContentType(Paths.get(name));
+    } catch (IOException | RuntimeException e) {
+      // Fall back to the file extension.
+    }
+    if (contentType == null) {
+      contentType = MimeTypeUtils.mimeTypeByFileExtension(name.substring(name.lastIndexOf('.') + 1));
+    }
+    return contentType;
+  }
+
+}
@@ -0,0 +1,254 @@
+package com.robothy.netty.router;
+
+import io.netty.buffer.ByteBuf;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of static resource content bounded by the total number of bytes it holds.
+ *
+ * <p>The cache owns one reference of each cached buffer, and hands out retained duplicates that share
+ * the memory of the cached buffer. A duplicate stays valid after the entry is evicted because it holds
+ * its own reference. A lookup pins the entry while it retains the buffer, so that an eviction on another
+ * thread cannot free the buffer, and hand its memory to another owner, in between.
+ *
+ * <p>Each entry is stamped with the last modified time and the size of the resource it was loaded from.
+ * A lookup with another stamp discards the entry. Lookups don't take locks; when the cache is over its
+ * budget, entries are evicted with the CLOCK (second chance) policy like {@link RouteCache}.
+ */
+final class StaticResourceCache {
+
+  private final long maximumBytes;
+
+  private final long maximumEntryBytes;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  private final LongAdder hitCount = new LongAdder();
+
+  private final LongAdder missCount = new LongAdder();
+
+  private final LongAdder evictionCount = new LongAdder();
+
+  private volatile boolean closed;
+
+  /**
+   * @param maximumBytes the budget of all cached content.
+   * @param maximumEntryBytes resources larger than this are not cached.
+   */
+  StaticResourceCache(long maximumBytes, long maximumEntryBytes) {
+    if (maximumBytes <= 0) {
+      throw new IllegalArgumentException("The size of the static resource cache must be positive.");
+    }
+    this.maximumBytes = maximumBytes;
+    this.maximumEntryBytes = Math.min(maximumBytes, maximumEntryBytes);
+  }
+
+  /**
+   * @param size size of a resource; negative if unknown.
+   * @return {@code true} if a resource of {@code size} bytes may be cached.
+   */
+  boolean accepts(long size) {
+    return size <= maximumEntryBytes;
+  }
+
+  /**
+   * Find the content of {@code key} loaded from a resource with the same last modified time and size.
+   *
+   * @return a retained duplicate of the content that the caller must release; or {@code null}.
+   */
+  ByteBuf get(String key, long lastModified, long size) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      if (entry.lastModified == lastModified && entry.size == size) {
+        ByteBuf content = entry.retainedDuplicate();
+        if (content != null) {
+          if (!entry.referenced) {
+            entry.referenced = true;
+          }
+          hitCount.increment();
+          return content;
+        }
+        // Evicted by another thread.
+      } else if (entries.remove(key, entry)) {
+        discard(entry);
+      }
+    }
+    missCount.increment();
+    return null;
+  }
+
+  /**
+   * Cache {@code content} of {@code key}. The cache takes the ownership of {@code content}; it is
+   * released when the entry is evicted. Content larger than the entry limit is not cached.
+   *
+   * @param lastModified last modified time of the resource that {@code content} was loaded from.
+   * @param size size of the resource that {@code content} was loaded from.
+   * @return a retained duplicate of the content that the caller must release; or {@code content}
+   *     itself if it is not cached.
+   */
+  ByteBuf put(String key, long lastModified, long size, ByteBuf content) {
+    if (closed || content.readableBytes() > maximumEntryBytes) {
+      return content;
+    }
+
+    Entry entry = new Entry(key, lastModified, size, content);
+    ByteBuf duplicate = content.retainedDuplicate();
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      discard(previous);
+    }
+    clock.offer(entry);
+    if (bytes.addAndGet(content.readableBytes()) > maximumBytes) {
+      evict();
+    }
+    if (closed) {
+      invalidateAll();
+    }
+    return duplicate;
+  }
+
+  private void evict() {
+    Entry victim;
+    while (bytes.get() > maximumBytes && (victim = clock.poll()) != null) {
+      if (victim.referenced) {
+        victim.referenced = false;
+        clock.offer(victim);
+        continue;
+      }
+
+      if (entries.remove(victim.key, victim)) {
+        bytes.addAndGet(-victim.content.readableBytes());
+        victim.release();
+        evictionCount.increment();
+      }
+    }
+  }
+
+  /**
+   * Discard the content of {@code key}.
+   */
+  void invalidate(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      discard(entry);
+    }
+  }
+
+  /**
+   * Discard all content.
+   */
+  void invalidateAll() {
+    for (String key : entries.keySet()) {
+      invalidate(key);
+    }
+  }
+
+  /**
+   * Discard all content and stop caching, so that no buffer is held after the cache is dropped.
+   */
+  void close() {
+    closed = true;
+    invalidateAll();
+  }
+
+  /**
+   * Release an entry that has been removed from {@link #entries}.
+   */
+  private void discard(Entry entry) {
+    clock.remove(entry);
+    bytes.addAndGet(-entry.content.readableBytes());
+    entry.release();
+  }
+
+  /**
+   * @return the number of cached resources.
+   */
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of bytes of all cached content.
+   */
+  long bytes() {
+    return bytes.get();
+  }
+
+  long hitCount() {
+    return hitCount.sum();
+  }
+
+  long missCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * @return the number of resources evicted because the cache was over its budget.
+   */
+  long evictionCount() {
+    return evictionCount.sum();
+  }
+
+  private static final class Entry {
+
+    private final String key;
+
+    private final long lastModified;
+
+    private final long size;
+
+    private final ByteBuf content;
+
+    private volatile boolean referenced;
+
+    /**
+     * Holders of the reference the cache owns: the cache until the entry is removed, and each lookup while it
+     * retains a duplicate. The buffer is released when the last holder lets go.
+     */
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    Entry(String key, long lastModified, long size, ByteBuf content) {
+      this.key = key;
+      this.lastModified = lastModified;
+      this.size = size;
+      this.content = content;
+    }
+
+    /**
+     * @return a retained duplicate of the content; or {@code null} if the content has been released.
+     */
+    ByteBuf retainedDuplicate() {
+      int current;
+      do {
+        if ((current = holders.get()) == 0) {
+          return null;
+        }
+      } while (!holders.compareAndSet(current, current + 1));
+      try {
+        return content.retainedDuplicate();
+      } finally {
+        release();
+      }
+    }
+
+    /**
+     * Let go of a hold, the cache lets go of its own once, when the entry is removed.
+     */
+    void release() {
+      if (holders.decrementAndGet() == 0) {
+        content.release();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+package com.robothy.netty.router;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An in-memory index of static resources keyed by request path. Matching a request against the index
+ * takes no file system or class loader access.
+ *
+ * <p>The index of a directory can be kept current by a {@link WatchService}, changes are visible
+ * once the watch service reports them. Cached content of changed files is discarded.
+ */
+@Slf4j
+final class StaticResourceIndex implements Closeable {
+
+  private final Map<String, StaticResource> resources = new ConcurrentHashMap<>();
+
+  /**
+   * The indexed directory; {@code null} for classpath resources.
+   */
+  private final Path root;
+
+  private final StaticResourceWriter writer;
+
+  private final Function<String, StaticResource> siblings = this::get;
+
+  private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+
+  private WatchService watchService;
+
+  private StaticResourceIndex(Path root, StaticResourceWriter writer) {
+    this.root = root;
+    this.writer = writer;
+  }
+
+  /**
+   * Index files under {@code directory}.
+   *
+   * @param watch whether to keep the index current with file changes.
+   * @param writer writes indexed resources.
+   */
+  static StaticResourceIndex directory(String directory, boolean watch, StaticResourceWriter writer) {
+    Path root = Paths.get(directory).toAbsolutePath().normalize();
+    StaticResourceIndex index = new StaticResourceIndex(root, writer);
+    try {
+      if (watch) {
+        index.watchService = root.getFileSystem().newWatchService();
+      }
+      if (Files.isDirectory(root)) {
+        index.addTree(root);
+      }
+    } catch (IOException e) {
+      index.close();
+      throw new UncheckedIOException("Failed to index static resources in " + directory, e);
+    }
+
+    if (watch) {
+      Thread watcher = new Thread(index::watch, "static-resource-watcher");
+      watcher.setDaemon(true);
+      watcher.start();
+    }
+    return index;
+  }
+
+  /**
+   * Index resources under {@code resourceRoot} of all classpath entries. If several entries have the
+   * same resource, the first one wins like {@link ClassLoader#getResource(String)}.
+   *
+   * @param writer writes indexed resources.
+   */
+  static StaticResourceIndex classpath(String resourceRoot, ClassLoader classLoader, StaticResourceWriter writer) {
+    StaticResourceIndex index = new StaticResourceIndex(null, writer);
+    try {
+      Enumeration<URL> roots = classLoader.getResources(resourceRoot);
+      while (roots.hasMoreElements()) {
+        URL url = roots.nextElement();
+        if ("file".equals(url.getProtocol())) {
+          index.addClasspathDirectory(Paths.get(url.toURI()));
+        } else if ("jar".equals(url.getProtocol())) {
+          index.addJarEntries((JarURLConnection) url.openConnection());
+        } else {
+          log.warn("Cannot index static resources in {}", url);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to index static resources in classpath:" + resourceRoot, e);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return index;
+  }
+
+  /**
+   * Find the resource of a request path. The path {@code /} maps to {@code /index.html}.
+   *
+   * @return the resource; or {@code null} if the resource is not indexed.
+   */
+  StaticResource get(String path) {
+    if (path == null || path.isEmpty() || "/".equals(path)) {
+      return resources.get("/index.html");
+    }
+
+    StaticResource resource = resources.get(path);
+    if (resource == null && (path.contains("//") || path.contains("/.") || path.indexOf('\\') != -1)) {
+      resource = resources.get(key(Paths.get("/", path).normalize()));
+    }
+    return resource;
+  }
+
+  int size() {
+    return resources.size();
+  }
+
+  /**
+   * Stop watching file changes and discard cached content.
+   */
+  @Override
+  public void close() {
+    writer.close();
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        log.warn("Failed to close the static resource watcher.", e);
+      }
+    }
+  }
+
+  private void addTree(Path start) throws IOException {
+    Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (watchService != null) {
+          watchKeys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isRegularFile()) {
+          String key = key(root.relativize(file));
+          put(key, StaticResource.file(key, file, writer, siblings));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        // Removed while walking.
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void addClasspathDirectory(Path directory) throws IOException {
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String key = key(directory.relativize(file));
+        resources.putIfAbsent(key, StaticResource.url(key, file.toUri().toURL(), attrs.size(),
+            attrs.lastModifiedTime().toMillis(), writer, siblings));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void addJarEntries(JarURLConnection connection) throws IOException {
+    String prefix = connection.getEntryName() + "/";
+    URL jarFileUrl = connection.getJarFileURL();
+    connection.setUseCaches(false);
+    try (JarFile jarFile = connection.getJarFile()) {
+      Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+          String key = "/" + entry.getName().substring(prefix.length());
+          URL url = new URL("jar:" + jarFileUrl + "!/" + entry.getName());
+          resources.putIfAbsent(key, StaticResource.url(key, url, entry.getSize(), entry.getTime(), writer, siblings));
+        }
+      }
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey watchKey = watchService.take();
+        Path directory = watchKeys.get(watchKey);
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            rescan();
+          } else if (directory != null) {
+            update(directory.resolve((Path) event.context()), event.kind());
+          }
+        }
+        if (!watchKey.reset()) {
+          watchKeys.remove(watchKey);
+        }
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // Closed.
+    }
+  }
+
+  private void update(Path path, WatchEvent.Kind<?> kind) {
+    String key = key(root.relativize(path));
+    try {
+      if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+        remove(key);
+        String prefix = key + "/";
+        resources.keySet().stream().filter(k -> k.startsWith(prefix)).forEach(this::remove);
+      } else if (Files.isDirectory(path)) {
+        addTree(path);
+      } else if (Files.isRegularFile(path)) {
+        put(key, StaticResource.file(key, path, writer, siblings));
+      }
+    } catch (NoSuchFileException e) {
+      // Removed before it was indexed, the delete event follows.
+    } catch (IOException e) {
+      log.warn("Failed to index static resource " + path, e);
+    }
+  }
+
+  private void rescan() {
+    try {
+      watchKeys.keySet().forEach(WatchKey::cancel);
+      watchKeys.clear();
+      resources.clear();
+      writer.invalidateAll();
+      addTree(root);
+    } catch (IOException e) {
+      log.warn("Failed to index static resources in " + root, e);
+    }
+  }
+
+  private void put(String key, StaticResource resource) {
+    resources.put(key, resource);
+    writer.invalidate(key);
+  }
+
+  private void remove(String key) {
+    resources.remove(key);
+    writer.invalidate(key);
+  }
+
+  private static String key(Path relativePath) {
+    String path = relativePath.toString();
+    if (File.separatorChar != '/') {
+      path = path.replace(File.separatorChar, '/');
+    }
+    return path.startsWith("/") ? path : "/" + path;
+  }
+
+}
@@ -2,32 +2,89 @@ package com.robothy.netty.router;
 
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
-import io.netty.buffer.Unpooled;
-import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
-import io.netty.handler.codec.http.HttpResponseStatus;
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.URL;
-import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.Objects;
+import java.util.function.Function;
 
 abstract class StaticResourceMatcher {
 
   abstract HttpRequestHandler match(HttpRequest request);
 
+  /**
+   * @return whether {@link #match(HttpRequest)} may block on the classpath or the file system, and must not run
+   *     on the event loop.
+   */
+  boolean blocking() {
+    return true;
+  }
+
+  /**
+   * Release resources held by the matcher after it has been replaced.
+   */
+  void close() {
+
+  }
+
   static StaticResourceMatcher create(String path) {
+    return create(path, StaticResourceOptions.defaults());
+  }
+
+  static StaticResourceMatcher create(String path, StaticResourceOptions options) {
     Objects.requireNonNull(path, "The static resource path shouldn't be null.");
+    Objects.requireNonNull(options, "The static resource options shouldn't be null.");
+    StaticResourceCache cache = options.getCacheSize() > 0
+        ? new StaticResourceCache(options.getCacheSize(), options.getCacheMaxResourceSize())
+        : null;
+    StaticResourceWriter writer = new StaticResourceWriter(cache, options.isCompression(),
+        options.getCacheControl());
+    if (options.isIndexed()) {
+      return new IndexedResourceMatcher(path.startsWith("classpath:")
+          ? StaticResourceIndex.classpath(path.substring("classpath:".length()),
+          Thread.currentThread().getContextClassLoader(), writer)
+          : StaticResourceIndex.directory(path, options.isWatch(), writer));
+    }
     if (path.startsWith("classpath:")) {
-      return new ClasspathResourceMatcher(path);
+      return new ClasspathResourceMatcher(path, writer);
     } else {
-      return new DirectoryResourceMatcher(path);
+      return new DirectoryResourceMatcher(path, writer);
+    }
+  }
+
+  /**
+   * Match resources in an index built ahead of requests.
+   */
+  private static class IndexedResourceMatcher extends StaticResourceMatcher {
+
+    private final StaticResourceIndex index;
+
+    IndexedResourceMatcher(StaticResourceIndex index) {
+      this.index = index;
+    }
+
+    @Override
+    HttpRequestHandler match(HttpRequest request) {
+      if (request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD) {
+        return null;
+      }
+      StaticResource resource = index.get(request.getPath());
+      return resource == null ? null : resource.handler();
+    }
+
+    @Override
+    boolean blocking() {
+      return false;
+    }
+
+    @Override
+    void close() {
+      index.close();
     }
+
   }
 
   /**
@@ -39,21 +96,27 @@ abstract class StaticResourceMatcher {
 
     private final HttpRequestHandler handler;
 
-    ClasspathResourceMatcher(String path) {
+    private final StaticResourceWriter writer;
+
+    ClasspathResourceMatcher(String path, StaticResourceWriter writer) {
       this.resourceRoot = path.substring("classpath:".length());
+      this.writer = writer;
+      Function<String, StaticResource> siblings = this::resource;
       this.handler = (request, response) -> {
-        String resourceName = resourceName(request);
-        URL url = Thread.currentThread().getContextClassLoader().getResource(resourceName);
-        Objects.requireNonNull(url, request.getPath() + " not exist.");
-        String urlStr = url.toString();
-        String contentType = Files.probeContentType(Paths.get(urlStr.substring(urlStr.lastIndexOf("/") + 1)));
-        response.putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), contentType);
-        try (InputStream in = url.openStream()) {
-          response.write(in.readAllBytes());
-        }
+        StaticResource resource = resource(resourceName(request));
+        Objects.requireNonNull(resource, request.getPath() + " not exist.");
+        writer.write(request, response, resource, siblings);
       };
     }
 
+    /**
+     * Classpath resources don't change, the cached content is always current.
+     */
+    private StaticResource resource(String resourceName) {
+      URL url = Thread.currentThread().getContextClassLoader().getResource(resourceName);
+      return url == null ? null : StaticResource.url(resourceName, url, -1, 0, null, null);
+    }
+
     @Override
     public HttpRequestHandler match(HttpRequest request) {
       String resourceName = resourceName(request);
@@ -71,6 +134,11 @@ abstract class StaticResourceMatcher {
       return resourceRoot + request.getPath();
     }
 
+    @Override
+    void close() {
+      writer.close();
+    }
+
   }
 
   /**
@@ -78,45 +146,35 @@ abstract class StaticResourceMatcher {
    */
   private static class DirectoryResourceMatcher extends StaticResourceMatcher {
 
-    private static final int MAP_THRESHOLD = 10 * 1024 * 1024; // 10MB
-
     private final HttpRequestHandler handler;
 
     private final String rootDirectory;
 
-    DirectoryResourceMatcher(String directory) {
+    private final StaticResourceWriter writer;
+
+    DirectoryResourceMatcher(String directory, StaticResourceWriter writer) {
       this.rootDirectory = directory;
+      this.writer = writer;
+      Function<String, StaticResource> siblings = this::sibling;
       this.handler = (request, response) -> {
         String filename = filename(request);
-        Path absPath = Paths.get(directory, filename);
-
-        try (FileChannel fileChannel = FileChannel.open(absPath, StandardOpenOption.READ)) {
-          long contentLength = fileChannel.size();
-          response.status(HttpResponseStatus.OK)
-              .putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), contentLength)
-              .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), Files.probeContentType(absPath));
-
-          if (contentLength > MAP_THRESHOLD) {
-            MappedByteBuffer byteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, contentLength);
-            response.write(Unpooled.wrappedBuffer(byteBuffer));
-          } else {
-            int size = (int) contentLength;
-            ByteBuffer buf = ByteBuffer.allocate(size);
-            int readLen = 0;
-            while( size != (readLen += fileChannel.read(buf, readLen)) ) {
-              buf.compact();
-            }
-            buf.flip();
-            response.write(Unpooled.wrappedBuffer(buf));
-          }
-
-        }
+        writer.write(request, response, StaticResource.file(filename, Paths.get(directory, filename), null, null),
+            siblings);
       };
     }
 
+    private StaticResource sibling(String filename) {
+      Path file = Paths.get(rootDirectory, filename);
+      try {
+        return Files.isRegularFile(file) ? StaticResource.file(filename, file, null, null) : null;
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
     @Override
     public HttpRequestHandler match(HttpRequest request) {
-      if (request.getMethod() != HttpMethod.GET) {
+      if (request.getMethod() != HttpMethod.GET && request.getMethod() != HttpMethod.HEAD) {
         return null;
       }
 
@@ -137,6 +195,11 @@ abstract class StaticResourceMatcher {
       return Paths.get(request.getPath()).normalize().toString();
     }
 
+    @Override
+    void close() {
+      writer.close();
+    }
+
   }
 
 }
@@ -0,0 +1,60 @@
+package com.robothy.netty.router;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of static resources, see {@link Router#staticResource(String, StaticResourceOptions)}.
+ */
+@Getter
+@Builder
+public class StaticResourceOptions {
+
+  /**
+   * Build an index of resources when static resources are set, so that requests are matched from memory
+   * without probing the file system or the class loader.
+   */
+  @Builder.Default
+  private boolean indexed = false;
+
+  /**
+   * Keep the index of a directory current by watching file changes. Ignored for classpath resources.
+   */
+  @Builder.Default
+  private boolean watch = true;
+
+  /**
+   * Keep up to this many bytes of resource content in pooled direct buffers, so that hot resources are
+   * served without being read again. {@code 0} disables the cache.
+   */
+  @Builder.Default
+  private long cacheSize = 0;
+
+  /**
+   * Resources larger than this are not cached. Such files in a directory are sent with sendfile.
+   */
+  @Builder.Default
+  private long cacheMaxResourceSize = 1024 * 1024;
+
+  /**
+   * Negotiate {@code Accept-Encoding} for text resources. A precompressed {@code .gz} sibling of a
+   * resource is sent if there is one. Other resources are compressed once on the first request and the
+   * compressed variants are kept in the cache; without a cache, they are sent uncompressed.
+   */
+  @Builder.Default
+  private boolean compression = false;
+
+  /**
+   * Value of the {@code Cache-Control} header of the resources, for example {@code max-age=3600} or
+   * {@code public, max-age=31536000, immutable}; {@code null} to send no {@code Cache-Control} header.
+   */
+  private String cacheControl;
+
+  /**
+   * @return options that probe resources on each request.
+   */
+  public static StaticResourceOptions defaults() {
+    return builder().build();
+  }
+
+}
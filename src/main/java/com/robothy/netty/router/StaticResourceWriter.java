@@ -0,0 +1,353 @@
+package com.robothy.netty.router;
+
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Writes static resources to responses.
+ *
+ * <p>Content is served from the {@link StaticResourceCache} if there is one. Files that are not cached
+ * are sent as file regions.
+ *
+ * <p>With compression, the coding of a compressible resource is negotiated with the
+ * {@code Accept-Encoding} header. A precompressed {@code .gz} sibling is sent if there is one; otherwise
+ * the resource is compressed on the first request and the compressed variant is cached next to the
+ * identity content, so a resource is compressed once for each version and coding.
+ *
+ * <p>Responses carry an {@code ETag} and a {@code Last-Modified} header built from the size and the last
+ * modified time of the resource. A conditional request that matches them is answered with
+ * {@code 304 Not Modified} before any content is read.
+ *
+ * <p>Content sent as it is supports {@code Range} and {@code If-Range} requests. A single range of a file
+ * is sent as a file region; several ranges are sent as {@code multipart/byteranges}.
+ */
+final class StaticResourceWriter {
+
+  private static final int MAX_INITIAL_BUFFER = 10 * 1024 * 1024; // 10MB
+
+  /**
+   * Multiple ranges of files are read into memory, requests for more bytes are served as a whole.
+   */
+  private static final long MAX_MULTIPART_FILE_BYTES = 8 * 1024 * 1024; // 8MB
+
+  /**
+   * Cache of resource content; {@code null} if content is not cached.
+   */
+  private final StaticResourceCache cache;
+
+  private final boolean compression;
+
+  /**
+   * Value of the {@code Cache-Control} header; {@code null} if the header is not sent.
+   */
+  private final String cacheControl;
+
+  StaticResourceWriter(StaticResourceCache cache, boolean compression, String cacheControl) {
+    this.cache = cache;
+    this.compression = compression;
+    this.cacheControl = cacheControl;
+  }
+
+  /**
+   * Write {@code resource} to {@code response}.
+   *
+   * @param request the request; or {@code null}.
+   * @param siblings finds precompressed variants by request path; or {@code null}.
+   */
+  void write(HttpRequest request, HttpResponse response, StaticResource resource,
+             Function<String, StaticResource> siblings) throws IOException {
+    String encoding = null;
+    if (compression && ContentEncoding.compressible(resource.contentType())) {
+      response.putHeader(HttpHeaderNames.VARY.toString(), HttpHeaderNames.ACCEPT_ENCODING);
+      if (request != null) {
+        encoding = ContentEncoding.negotiate(request.header(HttpHeaderNames.ACCEPT_ENCODING).orElse(null));
+      }
+    }
+
+    StaticResource precompressed = ContentEncoding.GZIP.equals(encoding) && siblings != null
+        ? siblings.apply(resource.path() + ".gz")
+        : null;
+    boolean compress = precompressed == null && encoding != null && cache != null && cache.accepts(resource.size())
+        && (resource.size() < 0 || resource.size() >= ContentEncoding.MIN_COMPRESSED_SIZE);
+
+    if (cacheControl != null) {
+      response.putHeader(HttpHeaderNames.CACHE_CONTROL.toString(), cacheControl);
+    }
+    StaticResource sent = precompressed == null ? resource : precompressed;
+    String etag = sent.etag(compress ? encoding : null);
+    if (etag != null) {
+      response.putHeader(HttpHeaderNames.ETAG.toString(), etag)
+          .putHeader(HttpHeaderNames.LAST_MODIFIED.toString(), sent.lastModifiedDate());
+      if (notModified(request, etag, sent.lastModified())) {
+        response.status(HttpResponseStatus.NOT_MODIFIED);
+        return;
+      }
+    }
+
+    if (precompressed != null) {
+      write(response, precompressed, resource.contentType(), ContentEncoding.GZIP);
+      return;
+    }
+
+    if (!compress && resource.size() >= 0) {
+      response.putHeader(HttpHeaderNames.ACCEPT_RANGES.toString(), HttpHeaderValues.BYTES);
+      List<ByteRange> ranges = ranges(request, resource, etag);
+      if (ranges != null) {
+        writeRanges(response, resource, ranges);
+        return;
+      }
+    }
+
+    if (compress) {
+      String key = variantKey(resource.path(), encoding);
+      ByteBuf encoded = cache.get(key, resource.lastModified(), resource.size());
+      if (encoded == null) {
+        ByteBuf identity = load(resource);
+        if (identity.readableBytes() < ContentEncoding.MIN_COMPRESSED_SIZE) {
+          write(response, identity, resource.contentType(), null);
+          return;
+        }
+        try {
+          encoded = cache.put(key, resource.lastModified(), resource.size(),
+              ContentEncoding.encode(identity, encoding));
+        } finally {
+          identity.release();
+        }
+      }
+      write(response, encoded, resource.contentType(), encoding);
+      return;
+    }
+
+    write(response, resource, resource.contentType(), null);
+  }
+
+  /**
+   * Evaluate {@code If-None-Match}, or {@code If-Modified-Since} if there is no {@code If-None-Match}.
+   *
+   * @return {@code true} if the client has the current content.
+   */
+  private static boolean notModified(HttpRequest request, String etag, long lastModified) {
+    if (request == null) {
+      return false;
+    }
+
+    String ifNoneMatch = request.header(HttpHeaderNames.IF_NONE_MATCH).orElse(null);
+    if (ifNoneMatch != null) {
+      if (ifNoneMatch.equals(etag) || "*".equals(ifNoneMatch.trim())) {
+        return true;
+      }
+      // Weak comparison.
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    String ifModifiedSince = request.header(HttpHeaderNames.IF_MODIFIED_SINCE).orElse(null);
+    if (ifModifiedSince != null) {
+      Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+      // HTTP dates have a precision of seconds.
+      return since != null && lastModified / 1000 <= since.getTime() / 1000;
+    }
+    return false;
+  }
+
+  /**
+   * @return the ranges to send, empty if no range is satisfiable; or {@code null} to send the whole
+   *     resource.
+   */
+  private List<ByteRange> ranges(HttpRequest request, StaticResource resource, String etag) {
+    if (request == null || !HttpMethod.GET.equals(request.getMethod())) {
+      return null;
+    }
+    String range = request.header(HttpHeaderNames.RANGE).orElse(null);
+    if (range == null) {
+      return null;
+    }
+    String ifRange = request.header(HttpHeaderNames.IF_RANGE).orElse(null);
+    if (ifRange != null && (etag == null || !(ifRange.equals(etag) || ifRange.equals(resource.lastModifiedDate())))) {
+      // The client has another version, send the current one as a whole.
+      return null;
+    }
+
+    List<ByteRange> ranges = ByteRange.parse(range, resource.size());
+    if (ranges != null && ranges.size() > 1 && sendsFile(resource)) {
+      long length = 0;
+      for (ByteRange byteRange : ranges) {
+        length += byteRange.length();
+      }
+      if (length > MAX_MULTIPART_FILE_BYTES) {
+        return null;
+      }
+    }
+    return ranges;
+  }
+
+  private void writeRanges(HttpResponse response, StaticResource resource, List<ByteRange> ranges)
+      throws IOException {
+    long size = resource.size();
+    if (ranges.isEmpty()) {
+      response.status(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+          .putHeader(HttpHeaderNames.CONTENT_RANGE.toString(), "bytes */" + size);
+      return;
+    }
+
+    if (ranges.size() == 1) {
+      ByteRange range = ranges.get(0);
+      headers(response, resource.contentType(), null)
+          .status(HttpResponseStatus.PARTIAL_CONTENT)
+          .putHeader(HttpHeaderNames.CONTENT_RANGE.toString(), range.contentRange(size));
+      if (sendsFile(resource)) {
+        response.putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), range.length())
+            .file(resource.file(), range.start(), range.length());
+      } else {
+        ByteBuf content = load(resource);
+        try {
+          response.write(slice(content, range));
+        } finally {
+          content.release();
+        }
+      }
+      return;
+    }
+
+    String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    response.status(HttpResponseStatus.PARTIAL_CONTENT)
+        .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), "multipart/byteranges; boundary=" + boundary);
+    ByteBuf content = sendsFile(resource) ? null : load(resource);
+    try {
+      for (ByteRange range : ranges) {
+        response.write("\r\n--" + boundary
+            + "\r\n" + HttpHeaderNames.CONTENT_TYPE + ": " + resource.contentType()
+            + "\r\n" + HttpHeaderNames.CONTENT_RANGE + ": " + range.contentRange(size)
+            + "\r\n\r\n");
+        response.write(content == null
+            ? resource.read(PooledByteBufAllocator.DEFAULT.directBuffer((int) range.length()), range.start(),
+            (int) range.length())
+            : slice(content, range));
+      }
+      response.write("\r\n--" + boundary + "--\r\n");
+    } finally {
+      if (content != null) {
+        content.release();
+      }
+    }
+  }
+
+  private static ByteBuf slice(ByteBuf content, ByteRange range) {
+    return content.retainedSlice(content.readerIndex() + (int) range.start(), (int) range.length());
+  }
+
+  /**
+   * @return {@code true} if the content of {@code resource} is sent from its file.
+   */
+  private boolean sendsFile(StaticResource resource) {
+    return resource.file() != null && (cache == null || !cache.accepts(resource.size()));
+  }
+
+  /**
+   * Write the content of {@code resource} as it is.
+   *
+   * @param encoding the coding the resource is compressed with; or {@code null}.
+   */
+  private void write(HttpResponse response, StaticResource resource, String contentType, String encoding)
+      throws IOException {
+    Path file = resource.file();
+    if (sendsFile(resource)) {
+      long contentLength = Files.size(file);
+      headers(response, contentType, encoding)
+          .putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), contentLength)
+          .file(file, 0, contentLength);
+      return;
+    }
+    write(response, load(resource), contentType, encoding);
+  }
+
+  private static void write(HttpResponse response, ByteBuf content, String contentType, String encoding) {
+    headers(response, contentType, encoding).write(content);
+  }
+
+  private static HttpResponse headers(HttpResponse response, String contentType, String encoding) {
+    response.status(HttpResponseStatus.OK)
+        .putHeader(HttpHeaderNames.CONTENT_TYPE.toString(), contentType);
+    if (encoding != null) {
+      response.putHeader(HttpHeaderNames.CONTENT_ENCODING.toString(), encoding);
+    }
+    return response;
+  }
+
+  /**
+   * Load the content of {@code resource} from the cache, and put it into the cache on a miss.
+   *
+   * @return the content that the caller must release.
+   */
+  private ByteBuf load(StaticResource resource) throws IOException {
+    if (cache == null || !cache.accepts(resource.size())) {
+      return resource.read(Unpooled.buffer(initialCapacity(resource.size())));
+    }
+
+    ByteBuf content = cache.get(resource.path(), resource.lastModified(), resource.size());
+    if (content == null) {
+      content = cache.put(resource.path(), resource.lastModified(), resource.size(),
+          resource.read(PooledByteBufAllocator.DEFAULT.directBuffer(initialCapacity(resource.size()))));
+    }
+    return content;
+  }
+
+  /**
+   * Discard cached content of the resource at {@code path}, including its compressed variants.
+   */
+  void invalidate(String path) {
+    if (cache != null) {
+      cache.invalidate(path);
+      for (String encoding : ContentEncoding.ALL) {
+        cache.invalidate(variantKey(path, encoding));
+      }
+    }
+  }
+
+  void invalidateAll() {
+    if (cache != null) {
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * Release cached content after the resources are replaced.
+   */
+  void close() {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  /**
+   * A key that no request path collides with.
+   */
+  private static String variantKey(String path, String encoding) {
+    return path + '\0' + encoding;
+  }
+
+  private static int initialCapacity(long size) {
+    return size >= 0 && size < MAX_INITIAL_BUFFER ? (int) size : 4096;
+  }
+
+}
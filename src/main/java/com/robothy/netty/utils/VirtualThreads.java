@@ -0,0 +1,57 @@
+package com.robothy.netty.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads of JDK 21+ from code compiled for Java 8.
+ */
+public final class VirtualThreads {
+
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+  private VirtualThreads() {
+
+  }
+
+  /**
+   * Find the factory and create an executor once: on JDK 19 and 20 the factory exists as a preview API, and throws
+   * unless preview features are enabled.
+   *
+   * @return the factory; or {@code null} if it is missing or doesn't work.
+   */
+  private static Method lookup() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      ((ExecutorService) method.invoke(null)).shutdown();
+      return method;
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return whether the running JDK supports virtual threads.
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * @return an executor that starts a new virtual thread for each task, the caller shuts it down.
+   * @throws UnsupportedOperationException if the running JDK doesn't support virtual threads.
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (!isSupported()) {
+      throw new UnsupportedOperationException("Virtual threads require JDK 21 or later, running on "
+          + System.getProperty("java.version") + ".");
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Failed to create a virtual thread executor.", e);
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+package com.robothy.netty;
+
+import static org.junit.jupiter.api.Assertions.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Fails a test if buffers leaked while it ran. Every buffer is tracked unless the
+ * {@code io.netty.leakDetection.level} system property chooses another level. The extension is registered
+ * for all tests via {@code junit-platform.properties}.
+ *
+ * <p>A leak is only noticed once the buffer is garbage collected, so a leak may be reported by the test
+ * that runs after the leaking one.
+ */
+public class LeakDetectionExtension implements AfterEachCallback {
+
+  private static final List<String> LEAKS = new ArrayList<>();
+
+  static {
+    if (System.getProperty("io.netty.leakDetection.level") == null) {
+      ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+    ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new ResourceLeakDetectorFactory() {
+      @Override
+      @SuppressWarnings("deprecation")
+      public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval,
+                                                                 long maxActive) {
+        return new RecordingLeakDetector<>(resource, samplingInterval);
+      }
+    });
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) throws Exception {
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(10);
+      // Collected buffers are reported when the next buffer is tracked.
+      ByteBuf probe = PooledByteBufAllocator.DEFAULT.directBuffer(1);
+      probe.release();
+    }
+
+    List<String> leaks;
+    synchronized (LEAKS) {
+      leaks = new ArrayList<>(LEAKS);
+      LEAKS.clear();
+    }
+    if (!leaks.isEmpty()) {
+      fail(leaks.size() + " leak(s) detected:\n" + String.join("\n", leaks));
+    }
+  }
+
+  private static class RecordingLeakDetector<T> extends ResourceLeakDetector<T> {
+
+    RecordingLeakDetector(Class<?> resourceType, int samplingInterval) {
+      super(resourceType, samplingInterval);
+    }
+
+    @Override
+    protected boolean needReport() {
+      return true;
+    }
+
+    @Override
+    protected void reportTracedLeak(String resourceType, String records) {
+      synchronized (LEAKS) {
+        LEAKS.add(resourceType + " was not released." + records);
+      }
+    }
+
+    @Override
+    protected void reportUntracedLeak(String resourceType) {
+      synchronized (LEAKS) {
+        LEAKS.add(resourceType + " was not released.");
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,335 @@
+package com.robothy.netty.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import com.robothy.netty.http.AsyncRequestHandler;
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpResponse;
+import com.robothy.netty.http.RequestBodyStream;
+import com.robothy.netty.http.StreamingRequestHandler;
+import com.robothy.netty.router.ConcurrencyLimiter;
+import com.robothy.netty.router.Route;
+import com.robothy.netty.router.Router;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HttpMessageHandlerTest {
+
+  @Test
+  void async() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    List<HttpRequest> requests = new ArrayList<>();
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/hello", (request, response) -> response.write("Hello"))
+        .routeAsync(HttpMethod.POST, "/slow", (request, response) -> {
+          requests.add(request);
+          CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+          futures.add(future);
+          return future.thenApply(ignored -> response.write(request.getBody().toString(StandardCharsets.UTF_8)));
+        })
+        .exceptionHandler(IllegalStateException.class, (cause, request, response) -> response
+            .status(HttpResponseStatus.SERVICE_UNAVAILABLE).write(cause.getMessage()));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router));
+    for (String body : new String[] {"first", "second"}) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+      channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8)));
+    }
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hello"));
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertNull(channel.readOutbound());
+    assertEquals(1, futures.size(), "Pipelined requests wait for the pending response.");
+    assertEquals(1, requests.get(0).refCnt(), "The request is retained until the response is written.");
+
+    futures.get(0).complete(null);
+    assertEquals("first", text(channel.readOutbound()));
+    assertEquals(0, requests.get(0).refCnt());
+    assertEquals(2, futures.size());
+    assertNull(channel.readOutbound());
+
+    futures.get(1).completeExceptionally(new IllegalStateException("Unavailable"));
+    FullHttpResponse failed = channel.readOutbound();
+    assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, failed.status());
+    assertEquals("Unavailable", text(failed));
+    assertEquals("Hello", text(channel.readOutbound()));
+    assertEquals(0, requests.get(1).refCnt());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void executionPolicy() {
+    List<String> handled = new ArrayList<>();
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/inline", ExecutionPolicy.NON_BLOCKING,
+            (request, response) -> handled.add("inline"))
+        .route(HttpMethod.GET, "/offloaded", (request, response) -> handled.add("offloaded"));
+    List<Runnable> tasks = new ArrayList<>();
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router, tasks::add));
+    for (String path : new String[] {"/inline", "/offloaded", "/inline"}) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path));
+      channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+    assertEquals(List.of("inline"), handled);
+    assertEquals(1, tasks.size(), "The blocking route is dispatched to the handler executor.");
+    ((FullHttpResponse) channel.readOutbound()).release();
+    assertNull(channel.readOutbound());
+
+    tasks.get(0).run();
+    assertEquals(List.of("inline", "offloaded", "inline"), handled,
+        "The pipelined request runs after the offloaded one.");
+    ((FullHttpResponse) channel.readOutbound()).release();
+    ((FullHttpResponse) channel.readOutbound()).release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void concurrencyLimit() {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+        .initialLimit(1)
+        .maxLimit(1)
+        .retryAfter(Duration.ofSeconds(2))
+        .build();
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    Router router = Router.router()
+        .route(Route.builder()
+            .method(HttpMethod.POST)
+            .path("/slow")
+            .concurrencyLimiter(limiter)
+            .handler((AsyncRequestHandler) (request, response) -> {
+              CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+              futures.add(future);
+              return future.thenApply(ignored -> response.write("done"));
+            })
+            .build());
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router));
+    ByteBuf rejectedBody = Unpooled.copiedBuffer("second", StandardCharsets.UTF_8);
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("first", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+    channel.writeInbound(new DefaultLastHttpContent(rejectedBody));
+    assertEquals(0, rejectedBody.refCnt(), "The body of a rejected request is dropped.");
+    assertEquals(1, futures.size());
+    assertEquals(1, limiter.inFlight());
+    assertEquals(1, limiter.rejectedCount());
+    assertNull(channel.readOutbound(), "The rejection waits for the pending response.");
+
+    futures.get(0).complete(null);
+    assertEquals("done", text(channel.readOutbound()));
+    FullHttpResponse rejected = channel.readOutbound();
+    assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, rejected.status());
+    assertEquals("2", rejected.headers().get(HttpHeaderNames.RETRY_AFTER));
+    rejected.release();
+    assertEquals(0, limiter.inFlight());
+    assertTrue(channel.isActive(), "Shedding a request keeps the connection.");
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void limitLatencyFromDispatch() throws Exception {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+        .initialLimit(1)
+        .maxLimit(2)
+        .latencyThreshold(Duration.ofMillis(50))
+        .build();
+    Router router = Router.router()
+        .concurrencyLimit(limiter)
+        .route(HttpMethod.POST, "/upload", (request, response) -> response.write("done"));
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    TimeUnit.MILLISECONDS.sleep(100);
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("slow", StandardCharsets.UTF_8)));
+    assertEquals("done", text(channel.readOutbound()));
+    assertEquals(2, limiter.limit(), "A slow upload is not server latency.");
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void pipelining() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    List<String> handled = new ArrayList<>();
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/hello", (request, response) -> {
+          handled.add("hello");
+          response.write("Hello");
+        })
+        .routeAsync(HttpMethod.POST, "/slow", (request, response) -> {
+          CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+          futures.add(future);
+          String body = request.getBody().toString(StandardCharsets.UTF_8);
+          return future.thenApply(ignored -> response.write(body));
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router, null, 3));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("first", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hello"));
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    for (String body : new String[] {"second", "third"}) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+      channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer(body, StandardCharsets.UTF_8)));
+    }
+    assertEquals(List.of("hello"), handled, "Pipelined requests are handled before earlier responses.");
+    assertEquals(2, futures.size(), "Requests over the pipelining depth wait.");
+    assertNull(channel.readOutbound(), "The response waits for the responses of earlier requests.");
+
+    futures.get(1).complete(null);
+    assertNull(channel.readOutbound());
+    futures.get(0).complete(null);
+    assertEquals("first", text(channel.readOutbound()));
+    assertEquals("Hello", text(channel.readOutbound()));
+    assertEquals("second", text(channel.readOutbound()));
+    assertEquals(3, futures.size());
+
+    futures.get(2).complete(null);
+    assertEquals("third", text(channel.readOutbound()));
+    assertNull(channel.readOutbound());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void pipeliningClosed() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    List<HttpRequest> requests = new ArrayList<>();
+    Router router = Router.router()
+        .routeAsync(HttpMethod.POST, "/slow", (request, response) -> {
+          requests.add(request);
+          CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+          futures.add(future);
+          return future.thenApply(ignored -> response.write("done"));
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router, null, 2));
+    for (int i = 0; i < 2; i++) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+      channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8)));
+    }
+    futures.get(1).complete(null);
+    channel.finishAndReleaseAll();
+    assertEquals(0, requests.get(1).refCnt(), "Completed responses are discarded when the connection closes.");
+    futures.get(0).complete(null);
+    assertEquals(0, requests.get(0).refCnt());
+    assertNull(channel.readOutbound());
+  }
+
+  @Test
+  void pipeliningFailedExceptionHandler() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    List<String> handled = new ArrayList<>();
+    Router router = Router.router()
+        .routeAsync(HttpMethod.POST, "/slow", (request, response) -> {
+          CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+          futures.add(future);
+          return future.thenApply(ignored -> response.write("slow"));
+        })
+        .route(HttpMethod.GET, "/fail", (request, response) -> {
+          throw new IllegalStateException("Failed");
+        })
+        .route(HttpMethod.GET, "/hello", (request, response) -> handled.add("hello"))
+        .exceptionHandler(IllegalStateException.class, (cause, request, response) -> {
+          throw new IllegalArgumentException("Exception handler failed");
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router, null, 2));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8)));
+    for (String path : new String[] {"/fail", "/hello"}) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path));
+      channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+    assertNull(channel.readOutbound(), "The 500 waits for the response of the earlier request.");
+
+    futures.get(0).complete(null);
+    assertEquals("slow", text(channel.readOutbound()));
+    FullHttpResponse failed = channel.readOutbound();
+    assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, failed.status());
+    failed.release();
+    assertNull(channel.readOutbound());
+    assertFalse(channel.isOpen(), "The connection closes after the 500.");
+    assertEquals(List.of(), handled, "Requests after the 500 are dropped.");
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void pipeliningBackpressure() {
+    List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+    Router router = Router.router()
+        .routeAsync(HttpMethod.POST, "/slow", (request, response) -> {
+          CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+          futures.add(future);
+          return future.thenApply(ignored -> response.write("slow"));
+        })
+        .route(HttpMethod.POST, "/upload", new StreamingRequestHandler() {
+          @Override
+          public void onRequest(HttpRequest request, RequestBodyStream body) {
+            body.read();
+          }
+
+          @Override
+          public void onContent(HttpRequest request, ByteBuf content, RequestBodyStream body) {
+            body.read();
+          }
+
+          @Override
+          public void handle(HttpRequest request, HttpResponse response) {
+            response.write("uploaded");
+          }
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router, null, 1));
+    for (int i = 0; i < 2; i++) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/slow"));
+      channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8)));
+    }
+    assertFalse(channel.config().isAutoRead(), "Stop reading while requests wait beyond the pipelining depth.");
+
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("body", StandardCharsets.UTF_8)));
+    assertFalse(channel.config().isAutoRead(), "The decoder doesn't resume reading held back by the handler.");
+
+    futures.get(0).complete(null);
+    assertEquals("slow", text(channel.readOutbound()));
+    assertFalse(channel.config().isAutoRead());
+    futures.get(1).complete(null);
+    assertEquals("slow", text(channel.readOutbound()));
+    assertEquals("uploaded", text(channel.readOutbound()));
+    assertTrue(channel.config().isAutoRead(), "Read on once the waiting requests are dispatched.");
+    channel.finishAndReleaseAll();
+  }
+
+  private static String text(FullHttpResponse response) {
+    try {
+      return response.content().toString(StandardCharsets.UTF_8);
+    } finally {
+      response.release();
+    }
+  }
+
+}
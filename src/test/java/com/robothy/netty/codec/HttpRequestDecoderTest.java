@@ -0,0 +1,420 @@
+package com.robothy.netty.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import com.robothy.netty.http.ExecutionPolicy;
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpResponse;
+import com.robothy.netty.http.RequestBodyStream;
+import com.robothy.netty.http.StreamingRequestHandler;
+import com.robothy.netty.router.Router;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class HttpRequestDecoderTest {
+
+  @Test
+  void decode() {
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder());
+    DefaultHttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/users%20list?id=1&id=2");
+    head.headers().add("X-Trace-Id", "abc").add("Cookie", "a=1");
+    channel.writeInbound(head);
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.UTF_8)));
+
+    HttpRequest request = channel.readInbound();
+    assertSame(head.headers(), request.getHttpHeaders(), "Headers are not copied.");
+    assertEquals("abc", request.header("x-trace-id").orElse(null));
+    assertEquals("abc", request.header("X-TRACE-ID").orElse(null));
+    assertEquals("a=1", request.getHeaders().get("cookie"));
+    assertTrue(request.getHeaders().containsKey("COOKIE"));
+    assertEquals(2, request.getHeaders().size());
+    assertTrue(request.getHeaders().containsKey("x-trace-id"));
+    assertFalse(request.getHeaders().entrySet().stream().anyMatch(entry -> entry.getKey().equals("X-Trace-Id")),
+        "Entries are keyed by lower case names.");
+
+    request.getHeaders().put("X-Added", "1");
+    assertEquals("1", head.headers().get("x-added"), "Changes are written through.");
+    assertNull(request.getHeaders().remove("X-Missing"));
+
+    assertEquals("/users list", request.getPath());
+    assertEquals(List.of("1", "2"), request.parameters("id").orElse(Collections.emptyList()));
+    assertEquals("1", request.parameter("id").orElse(null));
+    assertEquals("Hello", request.getBody().toString(StandardCharsets.UTF_8));
+
+    request.getBody().release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void stream() {
+    List<String> events = new ArrayList<>();
+    AtomicReference<RequestBodyStream> bodyRef = new AtomicReference<>();
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/hello", (request, response) -> response.write("Hello"))
+        .route(HttpMethod.POST, "/upload", new StreamingRequestHandler() {
+          @Override
+          public void onRequest(HttpRequest request, RequestBodyStream body) {
+            events.add("request " + request.getBody().readableBytes());
+            bodyRef.set(body);
+          }
+
+          @Override
+          public void onContent(HttpRequest request, ByteBuf content, RequestBodyStream body) {
+            events.add(content.toString(StandardCharsets.UTF_8));
+          }
+
+          @Override
+          public void handle(HttpRequest request, HttpResponse response) {
+            response.write("Uploaded " + String.join(",", events));
+          }
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpMessageHandler(router));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    assertEquals(List.of("request 0"), events);
+    assertFalse(channel.config().isAutoRead(), "Stop reading until the handler asks for content.");
+
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("a", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("b", StandardCharsets.UTF_8)));
+    // A pipelined request waits for the streamed request.
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/hello"));
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertEquals(List.of("request 0"), events);
+    assertNull(channel.readOutbound());
+
+    bodyRef.get().read();
+    assertEquals(List.of("request 0", "a"), events);
+    bodyRef.get().read();
+    assertEquals(List.of("request 0", "a", "b"), events);
+    assertTrue(channel.config().isAutoRead());
+
+    HttpResponse uploaded = channel.readOutbound();
+    assertEquals("Uploaded request 0,a,b", uploaded.getBody().toString(StandardCharsets.UTF_8));
+    HttpResponse hello = channel.readOutbound();
+    assertEquals("Hello", hello.getBody().toString(StandardCharsets.UTF_8));
+    uploaded.getBody().release();
+    hello.getBody().release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void streamFailure() {
+    Router router = Router.router()
+        .route(HttpMethod.POST, "/upload", new StreamingRequestHandler() {
+          @Override
+          public void onRequest(HttpRequest request, RequestBodyStream body) {
+            body.read();
+          }
+
+          @Override
+          public void onContent(HttpRequest request, ByteBuf content, RequestBodyStream body) {
+            throw new IllegalStateException("Disk full");
+          }
+
+          @Override
+          public void handle(HttpRequest request, HttpResponse response) {
+            response.write("Uploaded");
+          }
+        })
+        .exceptionHandler(IllegalStateException.class, (cause, request, response) -> response
+            .status(HttpResponseStatus.INSUFFICIENT_STORAGE).write(cause.getMessage()));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpMessageHandler(router));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    ByteBuf discarded = Unpooled.copiedBuffer("b", StandardCharsets.UTF_8);
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("a", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultLastHttpContent(discarded));
+    assertEquals(0, discarded.refCnt(), "The rest of the body is discarded.");
+
+    HttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.INSUFFICIENT_STORAGE, response.getStatus());
+    assertEquals("Disk full", response.getBody().toString(StandardCharsets.UTF_8));
+    response.getBody().release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void streamOnHandlerExecutor() {
+    List<String> events = new ArrayList<>();
+    Router router = Router.router()
+        .route(HttpMethod.POST, "/inline", ExecutionPolicy.NON_BLOCKING, streaming("inline", events))
+        .route(HttpMethod.POST, "/upload", streaming("upload", events));
+    List<Runnable> tasks = new ArrayList<>();
+    EmbeddedChannel channel = new EmbeddedChannel(
+        new HttpRequestDecoder(router, RequestBodyOptions.defaults(), tasks::add), new HttpMessageHandler(router));
+
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("a", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("b", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/inline"));
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("c", StandardCharsets.UTF_8)));
+    assertEquals(List.of(), events, "The callbacks of a blocking route run on the handler executor.");
+    assertEquals(1, tasks.size());
+
+    runAll(tasks, channel);
+    assertEquals(List.of("upload request", "upload a", "upload b", "inline request", "inline c"), events);
+    HttpResponse upload = channel.readOutbound();
+    assertEquals("upload", upload.getBody().toString(StandardCharsets.UTF_8));
+    HttpResponse inline = channel.readOutbound();
+    assertEquals("inline", inline.getBody().toString(StandardCharsets.UTF_8));
+    assertTrue(channel.config().isAutoRead());
+    upload.getBody().release();
+    inline.getBody().release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void staticProbeOnHandlerExecutor() {
+    List<String> probes = new ArrayList<>();
+    ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    Thread.currentThread().setContextClassLoader(new ClassLoader(contextClassLoader) {
+      @Override
+      public URL getResource(String name) {
+        probes.add(name);
+        return super.getResource(name);
+      }
+    });
+    try {
+      Router router = Router.router()
+          .route(HttpMethod.GET, "/api/users", (request, response) -> response.write("users"));
+      List<Runnable> tasks = new ArrayList<>();
+      EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+          new HttpMessageHandler(router, tasks::add));
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/api/missing"));
+      channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+      assertEquals(List.of(), probes, "The classpath is not probed on the event loop.");
+      assertEquals(1, tasks.size());
+
+      tasks.get(0).run();
+      assertEquals(List.of("static/api/missing"), probes);
+      FullHttpResponse response = channel.readOutbound();
+      assertEquals(HttpResponseStatus.NOT_FOUND, response.status());
+      response.release();
+      channel.finishAndReleaseAll();
+    } finally {
+      Thread.currentThread().setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  @Test
+  void release() {
+    List<HttpRequest> requests = new ArrayList<>();
+    List<HttpResponse> responses = new ArrayList<>();
+    Router router = Router.router()
+        .route(HttpMethod.POST, "/echo", (request, response) -> {
+          requests.add(request);
+          responses.add(response);
+          response.write(request.getBody().retain());
+        })
+        .route(HttpMethod.POST, "/fail", (request, response) -> {
+          requests.add(request);
+          responses.add(response);
+          response.write("partial");
+          throw new IllegalStateException("Failed");
+        })
+        .exceptionHandler(IllegalStateException.class, (cause, request, response) -> {
+          responses.add(response);
+          response.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).write(cause.getMessage());
+        });
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(router), new HttpResponseEncoder(),
+        new HttpMessageHandler(router));
+    for (String path : new String[] {"/echo", "/fail"}) {
+      channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, path));
+      channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("Hello", StandardCharsets.UTF_8)));
+    }
+
+    FullHttpResponse echo = channel.readOutbound();
+    assertEquals("Hello", echo.content().toString(StandardCharsets.UTF_8));
+    FullHttpResponse failed = channel.readOutbound();
+    assertEquals("Failed", failed.content().toString(StandardCharsets.UTF_8));
+    assertEquals(0, requests.get(1).refCnt(), "The request is released after it is handled.");
+    assertEquals(3, responses.size());
+    for (HttpResponse response : responses) {
+      assertEquals(0, response.refCnt(), "The response is released once it is written or discarded.");
+    }
+    assertEquals(1, requests.get(0).refCnt(), "The written message holds the echoed body.");
+    echo.release();
+    assertEquals(0, requests.get(0).refCnt());
+    failed.release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void rejectLargeBody() {
+    RequestBodyOptions options = RequestBodyOptions.builder().maxContentLength(8).build();
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(null, options));
+    DefaultHttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload");
+    HttpUtil.setContentLength(head, 9);
+    channel.writeInbound(head);
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, response.status());
+    assertFalse(channel.isOpen(), "Rejected before the body is read.");
+    response.release();
+
+    channel = new EmbeddedChannel(new HttpRequestDecoder(null, options));
+    head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload");
+    HttpUtil.setTransferEncodingChunked(head, true);
+    channel.writeInbound(head);
+    ByteBuf first = Unpooled.copiedBuffer("12345", StandardCharsets.UTF_8);
+    channel.writeInbound(new DefaultHttpContent(first));
+    assertNull(channel.readOutbound());
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("6789", StandardCharsets.UTF_8)));
+    response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, response.status());
+    assertEquals(0, first.refCnt(), "The aggregated part is released.");
+    assertNull(channel.readInbound());
+    response.release();
+  }
+
+  @Test
+  void limitInFlightBodies() {
+    RequestBodyOptions options = RequestBodyOptions.builder().maxInFlightContentLength(8).build();
+    EmbeddedChannel slow = new EmbeddedChannel(new HttpRequestDecoder(null, options));
+    slow.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    slow.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("123456", StandardCharsets.UTF_8)));
+    assertEquals(6, options.inFlightContentLength());
+
+    EmbeddedChannel other = new EmbeddedChannel(new HttpRequestDecoder(null, options));
+    other.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    other.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("123", StandardCharsets.UTF_8)));
+    FullHttpResponse response = other.readOutbound();
+    assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, response.status());
+    response.release();
+    assertEquals(6, options.inFlightContentLength());
+
+    slow.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    HttpRequest request = slow.readInbound();
+    assertEquals("123456", request.getBody().toString(StandardCharsets.UTF_8));
+    assertEquals(0, options.inFlightContentLength(), "A complete body leaves the in-flight limit.");
+    request.getBody().release();
+    slow.finishAndReleaseAll();
+  }
+
+  @Test
+  void spillLargeBody() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    RequestBodyOptions options = RequestBodyOptions.builder()
+        .maxInMemoryContentLength(4)
+        .spill(true)
+        .spillDirectory(directory)
+        .build();
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(null, options));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload"));
+    ByteBuf first = Unpooled.copiedBuffer("abc", StandardCharsets.UTF_8);
+    channel.writeInbound(new DefaultHttpContent(first));
+    assertEquals(3, options.inFlightContentLength());
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("def", StandardCharsets.UTF_8)));
+    assertEquals(0, first.refCnt(), "The body in memory moves to the file.");
+    assertEquals(0, options.inFlightContentLength());
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(1, files.count());
+    }
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("ghi", StandardCharsets.UTF_8)));
+
+    HttpRequest request = channel.readInbound();
+    assertEquals("abcdefghi", request.getBody().toString(StandardCharsets.UTF_8));
+    assertTrue(request.getBody().isDirect(), "A spilled body is mapped.");
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(1, files.count(), "The file is kept while the body is mapped.");
+    }
+    request.release();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count(), "The body is unmapped and the file deleted once the request is released.");
+    }
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void spillOnHandlerExecutor() throws Exception {
+    Path directory = Files.createTempDirectory("spill");
+    RequestBodyOptions options = RequestBodyOptions.builder()
+        .maxInMemoryContentLength(4)
+        .spill(true)
+        .spillDirectory(directory)
+        .build();
+    List<Runnable> tasks = new ArrayList<>();
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpRequestDecoder(null, options, tasks::add));
+    DefaultHttpRequest head = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload");
+    HttpUtil.setContentLength(head, 9);
+    channel.writeInbound(head);
+    channel.writeInbound(new DefaultHttpContent(Unpooled.copiedBuffer("abcdef", StandardCharsets.UTF_8)));
+    assertFalse(channel.config().isAutoRead(), "Reading pauses while the bytes to write are over the limit.");
+    channel.writeInbound(new DefaultLastHttpContent(Unpooled.copiedBuffer("ghi", StandardCharsets.UTF_8)));
+    channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/next"));
+    channel.writeInbound(LastHttpContent.EMPTY_LAST_CONTENT);
+    assertNull(channel.readInbound(), "The request waits for its body to be written.");
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count(), "The file is written on the handler executor.");
+    }
+
+    runAll(tasks, channel);
+    HttpRequest request = channel.readInbound();
+    assertEquals("abcdefghi", request.getBody().toString(StandardCharsets.UTF_8));
+    HttpRequest next = channel.readInbound();
+    assertEquals("/next", next.getPath(), "Later requests are decoded after the spilled one.");
+    assertTrue(channel.config().isAutoRead());
+    request.release();
+    next.release();
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(0, files.count());
+    }
+    channel.finishAndReleaseAll();
+  }
+
+  private static StreamingRequestHandler streaming(String name, List<String> events) {
+    return new StreamingRequestHandler() {
+      @Override
+      public void onRequest(HttpRequest request, RequestBodyStream body) {
+        events.add(name + " request");
+        body.read();
+      }
+
+      @Override
+      public void onContent(HttpRequest request, ByteBuf content, RequestBodyStream body) {
+        events.add(name + " " + content.toString(StandardCharsets.UTF_8));
+        body.read();
+      }
+
+      @Override
+      public void handle(HttpRequest request, HttpResponse response) {
+        response.write(name);
+      }
+    };
+  }
+
+  /**
+   * Run the tasks submitted to the handler executor and the tasks they hand back to the channel.
+   */
+  private static void runAll(List<Runnable> tasks, EmbeddedChannel channel) {
+    channel.runPendingTasks();
+    while (!tasks.isEmpty()) {
+      tasks.remove(0).run();
+      channel.runPendingTasks();
+    }
+  }
+
+}
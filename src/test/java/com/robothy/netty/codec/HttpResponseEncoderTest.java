@@ -0,0 +1,129 @@
+package com.robothy.netty.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import com.robothy.netty.http.HttpResponse;
+import com.robothy.netty.http.ResponseBodyStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class HttpResponseEncoderTest {
+
+  @Test
+  void encodeBody() {
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpResponseEncoder());
+    channel.writeOutbound(new HttpResponse().status(HttpResponseStatus.OK).write("Hello"));
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals("Hello", response.content().toString(StandardCharsets.UTF_8));
+    response.release();
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void encodeFile() throws Exception {
+    Path file = Files.createTempFile("file-region", ".txt");
+    Files.write(file, "Hello World".getBytes(StandardCharsets.UTF_8));
+
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpResponseEncoder());
+    channel.writeOutbound(new HttpResponse()
+        .status(HttpResponseStatus.OK)
+        .putHeader(HttpHeaderNames.CONTENT_LENGTH.toString(), 5)
+        .file(file, 6, 5));
+
+    io.netty.handler.codec.http.HttpResponse head = channel.readOutbound();
+    assertInstanceOf(io.netty.handler.codec.http.HttpResponse.class, head);
+    assertEquals("5", head.headers().get(HttpHeaderNames.CONTENT_LENGTH));
+    FileRegion region = channel.readOutbound();
+    assertEquals(6, region.position());
+    assertEquals(5, region.count());
+    region.release();
+    assertSame(LastHttpContent.EMPTY_LAST_CONTENT, channel.readOutbound());
+    assertNull(channel.readOutbound());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void encodeMissingFile() {
+    EmbeddedChannel channel = new EmbeddedChannel(new HttpResponseEncoder());
+    HttpResponse response = new HttpResponse()
+        .status(HttpResponseStatus.OK)
+        .write("ignored")
+        .file(Path.of("missing-" + System.nanoTime()), 0, 1);
+    ByteBuf body = response.getBody();
+    response.retain();
+    assertThrows(EncoderException.class, () -> channel.writeOutbound(response));
+    assertEquals(1, response.refCnt());
+    assertEquals(0, body.refCnt(), "The body is released even though the file cannot be opened.");
+    response.release();
+    assertNull(channel.readOutbound());
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  void encodeStream() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ChunkedWriteHandler(), new HttpResponseEncoder());
+    HttpResponse response = new HttpResponse().status(HttpResponseStatus.OK);
+    ResponseBodyStream stream = response.stream();
+    assertEquals(-1, response.contentLength());
+
+    // Chunks queue up until the response is written.
+    int highWaterMark = channel.config().getWriteBufferHighWaterMark();
+    stream.write(Unpooled.copiedBuffer("Hello", StandardCharsets.UTF_8));
+    stream.write(Unpooled.wrappedBuffer(new byte[highWaterMark]));
+    assertFalse(stream.isWritable(), "Pause above the high water mark.");
+    AtomicBoolean resumed = new AtomicBoolean();
+    stream.onWritable(() -> resumed.set(true));
+    assertFalse(resumed.get());
+
+    channel.writeOutbound(response);
+    io.netty.handler.codec.http.HttpResponse head = channel.readOutbound();
+    assertTrue(HttpUtil.isTransferEncodingChunked(head));
+    assertEquals("Hello", text(channel.readOutbound()));
+    HttpContent large = channel.readOutbound();
+    assertEquals(highWaterMark, large.content().readableBytes());
+    large.release();
+    assertTrue(resumed.get(), "Resume once the queue drains.");
+    assertTrue(stream.isWritable());
+
+    stream.write(Unpooled.copiedBuffer("!", StandardCharsets.UTF_8));
+    stream.end();
+    channel.runPendingTasks();
+    assertEquals("!", text(channel.readOutbound()));
+    assertInstanceOf(LastHttpContent.class, channel.readOutbound());
+    assertTrue(stream.isClosed());
+
+    ByteBuf late = Unpooled.copiedBuffer("late", StandardCharsets.UTF_8);
+    stream.write(late);
+    assertEquals(0, late.refCnt(), "Chunks written after the body is sent are released.");
+    channel.finishAndReleaseAll();
+  }
+
+  private static String text(HttpContent content) {
+    try {
+      return content.content().toString(StandardCharsets.UTF_8);
+    } finally {
+      content.release();
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+package com.robothy.netty.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class HttpResponseTest {
+
+  @Test
+  void write() {
+    HttpResponse response = new HttpResponse(PooledByteBufAllocator.DEFAULT)
+        .write("{\"name\":")
+        .write(new StringBuilder("\"caf\u00e9\""))
+        .write("}".getBytes(StandardCharsets.UTF_8));
+    assertEquals(16, response.contentLength());
+
+    ByteBuf body = response.getBody();
+    assertFalse(body instanceof CompositeByteBuf, "Strings and bytes are written into one buffer.");
+    assertTrue(body.isDirect());
+    assertEquals("{\"name\":\"caf\u00e9\"}", body.toString(StandardCharsets.UTF_8));
+    body.release();
+  }
+
+  @Test
+  void writeBuffer() {
+    ByteBuf buf = Unpooled.copiedBuffer("b", StandardCharsets.UTF_8);
+    HttpResponse response = new HttpResponse().write(buf);
+    assertSame(buf, response.getBody(), "A buffer is not copied.");
+
+    response.write("c").write(Unpooled.copiedBuffer("d", StandardCharsets.UTF_8)).write("e");
+    assertEquals(4, response.contentLength());
+    assertEquals("bcde", response.getBody().toString(StandardCharsets.UTF_8));
+
+    response.clearBody();
+    assertEquals(0, buf.refCnt());
+    assertEquals(0, response.contentLength());
+  }
+
+  @Test
+  void writer() throws Exception {
+    HttpResponse response = new HttpResponse(PooledByteBufAllocator.DEFAULT);
+    Writer writer = response.writer();
+    String emoji = "\uD83D\uDE00";
+    writer.append("smile ").append(emoji.charAt(0));
+    writer.write(emoji.charAt(1));
+    writer.write(" a".toCharArray(), 0, 2);
+    writer.append("xbcx", 1, 3);
+    writer.flush();
+
+    assertEquals("smile " + emoji + " abc", response.getBody().toString(StandardCharsets.UTF_8));
+    response.getBody().release();
+  }
+
+}
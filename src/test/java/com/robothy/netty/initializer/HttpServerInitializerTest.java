@@ -1,8 +1,12 @@
 package com.robothy.netty.initializer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import com.robothy.netty.codec.RequestBodyOptions;
 import com.robothy.netty.router.Router;
+import com.robothy.netty.utils.VirtualThreads;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
@@ -13,11 +17,13 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
@@ -34,6 +40,8 @@ import java.util.Arrays;
 import java.util.Optional;
 import java.util.OptionalLong;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
 
@@ -158,4 +166,37 @@ class HttpServerInitializerTest {
     executor.shutdownGracefully();
   }
 
+  @Test
+  void offloading() throws Exception {
+    Router router = Router.router()
+        .route(HttpMethod.GET, "/thread", (request, response) -> response.write(Thread.currentThread().getName()));
+    ExecutorService handlerExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("handler"));
+    EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("io"));
+    Channel server = new ServerBootstrap().group(group)
+        .channel(NioServerSocketChannel.class)
+        .childHandler(HttpServerInitializer.offloading(handlerExecutor, router, RequestBodyOptions.defaults()))
+        .bind(new InetSocketAddress("127.0.0.1", 0))
+        .sync()
+        .channel();
+    try {
+      URI uri = new URI("http://127.0.0.1:" + ((InetSocketAddress) server.localAddress()).getPort() + "/thread");
+      HttpResponse<String> response = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build()
+          .send(HttpRequest.newBuilder().GET().uri(uri).build(), HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      assertTrue(response.body().startsWith("handler"), "The handler runs on the handler executor.");
+    } finally {
+      server.close().sync();
+      group.shutdownGracefully();
+      handlerExecutor.shutdown();
+    }
+
+    if (VirtualThreads.isSupported()) {
+      ExecutorService virtualThreads = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      assertNotNull(HttpServerInitializer.offloading(virtualThreads, router, RequestBodyOptions.defaults()));
+      virtualThreads.shutdown();
+    } else {
+      assertThrows(UnsupportedOperationException.class, VirtualThreads::newVirtualThreadPerTaskExecutor);
+    }
+  }
+
 }
\ No newline at end of file
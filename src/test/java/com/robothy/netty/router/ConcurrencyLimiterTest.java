@@ -0,0 +1,36 @@
+package com.robothy.netty.router;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+
+  @Test
+  void adaptiveLimit() {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.builder()
+        .initialLimit(2)
+        .maxLimit(3)
+        .backoffRatio(0.5)
+        .latencyThreshold(Duration.ofMillis(100))
+        .build();
+    assertTrue(limiter.tryAcquire());
+    limiter.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+    assertEquals(3, limiter.limit(), "A fast response raises the limit.");
+    assertTrue(limiter.tryAcquire());
+    limiter.release(TimeUnit.MILLISECONDS.toNanos(1), false);
+    assertEquals(3, limiter.limit(), "The limit grows only while it is in use.");
+    assertTrue(limiter.tryAcquire());
+    limiter.release(TimeUnit.SECONDS.toNanos(1), false);
+    assertEquals(1, limiter.limit(), "A slow response cuts the limit.");
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+    limiter.release(0, true);
+    assertEquals(1, limiter.limit(), "The limit stays at the minimum.");
+    assertEquals(0, limiter.inFlight());
+  }
+
+}
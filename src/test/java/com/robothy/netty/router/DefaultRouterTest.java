@@ -5,8 +5,12 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
+import com.robothy.netty.http.HttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -37,8 +41,9 @@ class DefaultRouterTest {
     assertEquals(DefaultRouter.DEFAULT_NOT_FOUND_HANDLER, router.match(requestBuilder.path("/list/a").build()));
     router.notFound(notFoundHandler);
     assertEquals(notFoundHandler, router.match(requestBuilder.path("/").build()));
-    assertEquals(notFoundHandler, router.match(requestBuilder.method(HttpMethod.PUT).path("/list").build()));
-    assertEquals(notFoundHandler, router.match(requestBuilder.method(HttpMethod.PUT).path("/list/").build()));
+    assertMethodNotAllowed("GET, HEAD, OPTIONS", router.match(requestBuilder.method(HttpMethod.PUT).path("/list").build()));
+    assertMethodNotAllowed("GET, HEAD, OPTIONS", router.match(requestBuilder.method(HttpMethod.PUT).path("/list/").build()));
+    assertEquals(notFoundHandler, router.match(requestBuilder.method(HttpMethod.PUT).path("/lists").build()));
 
     HttpRequestHandler actionHandler = Mockito.mock(HttpRequestHandler.class);
     router.route(HttpMethod.GET, "/{action}", actionHandler);
@@ -94,6 +99,170 @@ class DefaultRouterTest {
     assertEquals(headerParamHandler, router.match(requestBuilder.build()));
   }
 
+  @Test
+  void methodDispatch() throws Exception {
+    DefaultRouter router = new DefaultRouter();
+    HttpRequestHandler getHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler postHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler purgeHandler = Mockito.mock(HttpRequestHandler.class);
+    router.route(HttpMethod.GET, "/a/{id}", getHandler)
+        .route(HttpMethod.POST, "/{name}/b", postHandler)
+        .route(HttpMethod.valueOf("PURGE"), "/a/{id}", purgeHandler);
+    HttpRequest.HttpRequestBuilder requestBuilder = HttpRequest.builder().path("/a/b");
+
+    assertEquals(getHandler, router.match(requestBuilder.method(HttpMethod.GET).build()));
+    // Backtrack to the path variable if the exact segment has no route for the method.
+    assertEquals(postHandler, router.match(requestBuilder.method(HttpMethod.POST).build()));
+    assertEquals(purgeHandler, router.match(requestBuilder.method(HttpMethod.valueOf("PURGE")).build()));
+    // HEAD is served by GET routes.
+    assertEquals(getHandler, router.match(requestBuilder.method(HttpMethod.HEAD).build()));
+
+    assertMethodNotAllowed("GET, HEAD, OPTIONS, PURGE", router.match(requestBuilder.path("/a/c").method(HttpMethod.DELETE).build()));
+    assertMethodNotAllowed("GET, HEAD, POST, OPTIONS, PURGE", router.match(requestBuilder.path("/a/b").method(HttpMethod.PUT).build()));
+    assertMethodNotAllowed("GET, HEAD, OPTIONS, PURGE", router.match(requestBuilder.path("/a/c").method(HttpMethod.valueOf("UNKNOWN")).build()));
+
+    HttpResponse options = new HttpResponse();
+    router.match(requestBuilder.path("/a/c").method(HttpMethod.OPTIONS).build()).handle(null, options);
+    assertEquals(HttpResponseStatus.OK, options.getStatus());
+    assertEquals("GET, HEAD, OPTIONS, PURGE", options.getHeaders().get(HttpHeaderNames.ALLOW.toString()));
+  }
+
+  @Test
+  void staticResourceBeforeMethodNotAllowed() throws Exception {
+    DefaultRouter router = new DefaultRouter();
+    router.route(HttpMethod.POST, "/{name}", Mockito.mock(HttpRequestHandler.class));
+
+    HttpRequest request = HttpRequest.builder().method(HttpMethod.GET).path("/test.html").build();
+    HttpResponse response = new HttpResponse();
+    router.match(request).handle(request, response);
+    assertEquals(HttpResponseStatus.OK, response.getStatus(), "Static resources are served before 405.");
+    response.release();
+    assertMethodNotAllowed("POST, OPTIONS", router.match(HttpRequest.builder()
+        .method(HttpMethod.GET).path("/missing.html").build()));
+  }
+
+  @Test
+  void customMethodsPerRouter() {
+    DefaultRouter router = new DefaultRouter();
+    HttpRequestHandler handler = Mockito.mock(HttpRequestHandler.class);
+    // 9 standard methods.
+    for (int i = 0; i < MethodIndex.MAX_METHODS - 9; i++) {
+      router.route(HttpMethod.valueOf("CUSTOM" + i), "/", handler);
+    }
+    assertThrows(IllegalArgumentException.class, () -> router.route(HttpMethod.valueOf("PURGE"), "/", handler));
+
+    // Other routers have their own custom methods.
+    DefaultRouter other = new DefaultRouter();
+    other.route(HttpMethod.valueOf("PURGE"), "/", handler);
+    assertEquals(handler, other.match(HttpRequest.builder().method(HttpMethod.valueOf("PURGE")).path("/").build()));
+  }
+
+  private static void assertMethodNotAllowed(String allow, HttpRequestHandler handler) throws Exception {
+    HttpResponse response = new HttpResponse();
+    handler.handle(null, response);
+    assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.getStatus());
+    assertEquals(allow, response.getHeaders().get(HttpHeaderNames.ALLOW.toString()));
+  }
+
+  @Test
+  void declarativeConditions() {
+    DefaultRouter router = new DefaultRouter();
+    router.routeCache(16);
+    HttpRequestHandler[] versionHandlers = new HttpRequestHandler[20];
+    for (int i = 0; i < versionHandlers.length; i++) {
+      versionHandlers[i] = Mockito.mock(HttpRequestHandler.class);
+      router.route(Route.builder().method(HttpMethod.GET).path("/users/{id}")
+          .header("Accept-Version", String.valueOf(i)).handler(versionHandlers[i]).build());
+    }
+    HttpRequestHandler legacyHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler tenantHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler debugHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler defaultHandler = Mockito.mock(HttpRequestHandler.class);
+    router.route(Route.builder().method(HttpMethod.GET).path("/users/{id}")
+            .header("Accept-Version", "0", "legacy").headerPresent("X-Legacy").handler(legacyHandler).build())
+        .route(Route.builder().method(HttpMethod.GET).path("/users/{id}")
+            .param("tenant", "a", "b").handler(tenantHandler).build())
+        .route(Route.builder().method(HttpMethod.GET).path("/users/{id}")
+            .paramPresent("debug").handler(debugHandler).build())
+        .route(HttpMethod.GET, "/users/{id}", defaultHandler);
+    assertThrows(IllegalArgumentException.class, () -> router.route(Route.builder().method(HttpMethod.GET)
+        .path("/users/{id}").header("Accept-Version", "1").handler(versionHandlers[1]).build()));
+
+    assertEquals(versionHandlers[7], router.match(request("/users/1", "accept-version", "7", null)));
+    assertEquals(versionHandlers[0], router.match(request("/users/1", "accept-version", "0", null)));
+    assertEquals(defaultHandler, router.match(request("/users/1", "accept-version", "legacy", null)));
+    assertEquals(defaultHandler, router.match(request("/users/1", "accept-version", "20", null)));
+    assertEquals(defaultHandler, router.match(request("/users/1", null, null, null)));
+    assertEquals(tenantHandler, router.match(request("/users/1", null, null, "tenant=b")));
+    assertEquals(debugHandler, router.match(request("/users/1", null, null, "tenant=c&debug")));
+    assertEquals(versionHandlers[3], router.match(request("/users/1", "accept-version", "3", "tenant=a")));
+
+    Map<CharSequence, String> headers = new HashMap<>();
+    headers.put("accept-version", "0");
+    headers.put("x-legacy", "");
+    assertEquals(legacyHandler, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/users/1")
+        .headers(headers).build()));
+    assertEquals(0, router.routeCache().size());
+  }
+
+  private static HttpRequest request(String path, String header, String value, String query) {
+    Map<CharSequence, String> headers = new HashMap<>();
+    if (header != null) {
+      headers.put(header, value);
+    }
+    Map<CharSequence, List<String>> params = new HashMap<>();
+    if (query != null) {
+      for (String param : query.split("&")) {
+        String[] pair = param.split("=");
+        params.put(pair[0], Collections.singletonList(pair.length > 1 ? pair[1] : ""));
+      }
+    }
+    return HttpRequest.builder().method(HttpMethod.GET).path(path).headers(headers).params(params).build();
+  }
+
+  @Test
+  void pathVariables() {
+    DefaultRouter router = new DefaultRouter();
+    HttpRequestHandler handler = Mockito.mock(HttpRequestHandler.class);
+    router.route(HttpMethod.GET, "/users/{user}/repos/{repo}/{repo}", handler);
+
+    HttpRequest request = HttpRequest.builder()
+        .method(HttpMethod.GET)
+        .path("//users/bob/repos//router/v2/")
+        .build();
+    assertEquals(handler, router.match(request));
+    assertEquals(Collections.singletonList("bob"), request.getParams().get("user"));
+    assertEquals(Arrays.asList("router", "v2"), request.getParams().get("repo"));
+    assertEquals("v2", request.parameters("repo").get().get(1));
+  }
+
+  @Test
+  void reload() {
+    DefaultRouter router = new DefaultRouter();
+    HttpRequestHandler listHandler = Mockito.mock(HttpRequestHandler.class);
+    HttpRequestHandler readHandler = Mockito.mock(HttpRequestHandler.class);
+    router.route(HttpMethod.GET, "/list", listHandler).freeze();
+    assertThrows(IllegalStateException.class, () -> router.route(HttpMethod.GET, "/{action}", readHandler));
+
+    router.reload(r -> r.route(HttpMethod.GET, "/{action}", readHandler));
+    HttpRequest request = HttpRequest.builder().method(HttpMethod.GET).path("/list").build();
+    assertEquals(readHandler, router.match(request));
+    assertEquals("list", request.parameter("action").orElse(null));
+    // Registered routes are replaced as well, registering the same route again is not a duplicate.
+    router.reload(r -> r.route(HttpMethod.GET, "/{action}", readHandler)
+        .route(HttpMethod.GET, "/items/{id}", listHandler));
+    HttpRequest item = HttpRequest.builder().method(HttpMethod.GET).path("/items/7").build();
+    assertEquals(listHandler, router.match(item));
+    assertEquals("7", item.parameter("id").orElse(null));
+    assertEquals(readHandler, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/list").build()));
+
+    router.reload(r -> r.route(HttpMethod.GET, "/items/{id}", readHandler));
+    assertEquals(readHandler, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/items/7").build()));
+    assertEquals(router.notFoundHandler(),
+        router.match(HttpRequest.builder().method(HttpMethod.GET).path("/list").build()),
+        "Routes of the previous table are not served after the reload.");
+  }
+
   @Test
   void testStaticResources() {
     Router router = new DefaultRouter();
@@ -1,12 +1,21 @@
 package com.robothy.netty.router;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 import com.robothy.netty.http.HttpRequest;
 import com.robothy.netty.http.HttpRequestHandler;
+import com.robothy.netty.http.HttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -35,10 +44,211 @@ class SpringWebRouterTest {
         arguments("/a/{*b}", "/a/b/c", true),
         arguments("/a/{b:[a-z]{1,}}/c", "/a/b/c", true), // Regex
         arguments("/a/{b:[a-z]{1,}}/c", "/a/A/c", false),
-        arguments("/a/{b:[a-z]{1,}}/c", "/a/123/c", false)
+        arguments("/a/{b:[a-z]{1,}}/c", "/a/123/c", false),
+        arguments("/a/b", "/a/b/", true), // Optional trailing separator
+        arguments("/a/b/", "/a/b", false),
+        arguments("/a/b/", "/a/b/", true),
+        arguments("/", "/", true),
+        arguments("/{a}", "/", false),
+        arguments("/a/{b}", "/a/b%20c", true), // Decoded by PathContainer
+        arguments("/a/b c", "/a/b%20c", true),
+        arguments("/a/{b}", "/a//", false),
+        arguments("/a/**", "/a", true),
+        arguments("/a/*.html", "/a/index.html", true),
+        arguments("/a/{b}.html", "/a/index.html", true),
+        arguments("/a/{b}.html", "/b/index.html", false)
     );
   }
 
+  @Test
+  public void mostSpecificPatternWins() {
+    SpringWebRouter router = new SpringWebRouter();
+    HttpRequestHandler literal = (request, response) -> {};
+    HttpRequestHandler capture = (request, response) -> {};
+    HttpRequestHandler captures = (request, response) -> {};
+    HttpRequestHandler wildcard = (request, response) -> {};
+    HttpRequestHandler catchAll = (request, response) -> {};
+    router.route(HttpMethod.GET, "/a/**", catchAll)
+        .route(HttpMethod.GET, "/a/*/c", wildcard)
+        .route(HttpMethod.GET, "/{x}/{y}/c", captures)
+        .route(HttpMethod.GET, "/a/{x}/c", capture)
+        .route(HttpMethod.GET, "/a/b/c", literal);
+
+    assertEquals(literal, router.match(request("/a/b/c")));
+    assertEquals(capture, router.match(request("/a/x/c")));
+    assertEquals(capture, router.match(request("/a/1/c")));
+    assertEquals(captures, router.match(request("/b/1/c")));
+    assertEquals(catchAll, router.match(request("/a/1/d")));
+    assertEquals(catchAll, router.match(request("/a")));
+    assertEquals(Router.DEFAULT_NOT_FOUND_HANDLER, router.match(request("/b/1/d")));
+
+    HttpRequest captureRequest = request("/b/1/c");
+    router.match(captureRequest);
+    assertEquals("b", captureRequest.parameter("x").orElse(null));
+    assertEquals("1", captureRequest.parameter("y").orElse(null));
+  }
+
+  @Test
+  public void methodNotAllowed() throws Exception {
+    SpringWebRouter router = new SpringWebRouter();
+    HttpRequestHandler handler = (request, response) -> {};
+    router.route(HttpMethod.GET, "/files/{*path}", handler)
+        .route(HttpMethod.PUT, "/files/{name}", handler)
+        .route(HttpMethod.DELETE, "/files/{name:[a-z]+}", handler);
+
+    HttpResponse response = new HttpResponse();
+    router.match(HttpRequest.builder().method(HttpMethod.POST).path("/files/abc").build()).handle(null, response);
+    assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.getStatus());
+    assertEquals("GET, HEAD, PUT, DELETE, OPTIONS", response.getHeaders().get(HttpHeaderNames.ALLOW.toString()));
+
+    response = new HttpResponse();
+    router.match(HttpRequest.builder().method(HttpMethod.OPTIONS).path("/files/a/b").build()).handle(null, response);
+    assertEquals(HttpResponseStatus.OK, response.getStatus());
+    assertEquals("GET, HEAD, OPTIONS", response.getHeaders().get(HttpHeaderNames.ALLOW.toString()));
+
+    assertEquals(handler, router.match(HttpRequest.builder().method(HttpMethod.HEAD).path("/files/a/b").build()));
+  }
+
+  @Test
+  public void staticResourceBeforeMethodNotAllowed() throws Exception {
+    SpringWebRouter router = new SpringWebRouter();
+    router.route(HttpMethod.POST, "/{name}", (request, response) -> {});
+
+    HttpRequest request = HttpRequest.builder().method(HttpMethod.GET).path("/test.html").build();
+    HttpResponse response = new HttpResponse();
+    router.match(request).handle(request, response);
+    assertEquals(HttpResponseStatus.OK, response.getStatus(), "Static resources are served before 405.");
+    response.release();
+
+    response = new HttpResponse();
+    router.match(HttpRequest.builder().method(HttpMethod.GET).path("/missing.html").build()).handle(null, response);
+    assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.getStatus());
+    assertEquals("POST, OPTIONS", response.getHeaders().get(HttpHeaderNames.ALLOW.toString()));
+  }
+
+  @Test
+  public void declarativeConditions() {
+    SpringWebRouter router = new SpringWebRouter();
+    router.routeCache(16);
+    HttpRequestHandler v1 = (request, response) -> {};
+    HttpRequestHandler v2 = (request, response) -> {};
+    HttpRequestHandler tenant = (request, response) -> {};
+    HttpRequestHandler defaultHandler = (request, response) -> {};
+    router.route(Route.builder().method(HttpMethod.GET).path("/users/{id}").header("Accept-Version", "1").handler(v1).build())
+        .route(Route.builder().method(HttpMethod.GET).path("/users/{name}").header("Accept-Version", "2", "2.1").handler(v2).build())
+        .route(Route.builder().method(HttpMethod.GET).path("/users/{id}").param("tenant", "a").handler(tenant).build())
+        .route(HttpMethod.GET, "/users/{id}", defaultHandler);
+
+    Map<CharSequence, String> headers = new HashMap<>();
+    headers.put("accept-version", "2.1");
+    HttpRequest request = HttpRequest.builder().method(HttpMethod.GET).path("/users/bob").headers(headers).build();
+    assertEquals(v2, router.match(request));
+    assertEquals("bob", request.parameter("name").orElse(null));
+    headers.put("accept-version", "1");
+    assertEquals(v1, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/users/bob").headers(headers).build()));
+    headers.put("accept-version", "3");
+    assertEquals(defaultHandler, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/users/bob").headers(headers).build()));
+
+    Map<CharSequence, List<String>> params = new HashMap<>();
+    params.put("tenant", Collections.singletonList("a"));
+    assertEquals(tenant, router.match(HttpRequest.builder().method(HttpMethod.GET).path("/users/bob").params(params).build()));
+    assertEquals(defaultHandler, router.match(request("/users/bob")));
+    // Other variants of the path depend on the request, the match is not cached.
+    assertEquals(0, router.routeCache().size());
+  }
+
+  @Test
+  public void routeCache() {
+    SpringWebRouter router = new SpringWebRouter();
+    assertNull(router.routeCache());
+    HttpRequestHandler userHandler = (request, response) -> {};
+    HttpRequestHandler headerHandler = (request, response) -> {};
+    HttpRequestHandler plainHandler = (request, response) -> {};
+    router.routeCache(2)
+        .route(HttpMethod.GET, "/users/{id}", userHandler)
+        .route(Route.builder()
+            .method(HttpMethod.GET)
+            .path("/a")
+            .headerMatcher(headers -> headers.containsKey("X-Info"))
+            .handler(headerHandler)
+            .build())
+        .route(HttpMethod.GET, "/a", plainHandler);
+    RouteCache cache = router.routeCache();
+
+    HttpRequest first = request("/users/1");
+    assertEquals(userHandler, router.match(first));
+    HttpRequest second = request("/users/1");
+    assertEquals(userHandler, router.match(second));
+    assertEquals("1", second.parameter("id").orElse(null));
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+
+    // Routes resolved with header matchers are not cached.
+    assertEquals(plainHandler, router.match(request("/a")));
+    assertEquals(plainHandler, router.match(request("/a")));
+    assertEquals(headerHandler, router.match(HttpRequest.builder()
+        .method(HttpMethod.GET)
+        .path("/a")
+        .headers(Map.of("X-Info", ""))
+        .build()));
+    assertEquals(1, cache.size());
+
+    // Static resources and 404 are not cached.
+    router.match(request("/test.html"));
+    router.match(request("/not/exist"));
+    assertEquals(1, cache.size());
+
+    router.match(request("/users/2"));
+    router.match(request("/users/3"));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.evictionCount());
+
+    // Changing routes invalidates the cache.
+    HttpRequestHandler newUserHandler = (request, response) -> {};
+    router.route(HttpMethod.GET, "/users/1", newUserHandler);
+    assertEquals(0, cache.size());
+    assertEquals(newUserHandler, router.match(request("/users/1")));
+  }
+
+  @Test
+  public void freezeAndReload() throws InterruptedException {
+    SpringWebRouter router = new SpringWebRouter();
+    HttpRequestHandler v1 = (request, response) -> {};
+    HttpRequestHandler v2 = (request, response) -> {};
+    router.route(HttpMethod.GET, "/users/{id}", v1).freeze();
+    assertThrows(IllegalStateException.class, () -> router.route(HttpMethod.GET, "/a", v1));
+    assertEquals(v1, router.match(request("/users/1")));
+
+    AtomicBoolean reloading = new AtomicBoolean(true);
+    AtomicReference<HttpRequestHandler> unexpected = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      while (reloading.get()) {
+        HttpRequestHandler handler = router.match(request("/users/1"));
+        if (handler != v1 && handler != v2) {
+          unexpected.set(handler);
+        }
+      }
+    });
+    reader.start();
+    for (int i = 0; i < 200; i++) {
+      HttpRequestHandler handler = i % 2 == 0 ? v2 : v1;
+      router.reload(r -> r.route(HttpMethod.GET, "/users/{id}", handler)
+          .route(HttpMethod.GET, "/users/{id}/profile", handler));
+    }
+    reloading.set(false);
+    reader.join();
+    assertNull(unexpected.get());
+    assertEquals(v1, router.match(request("/users/1/profile")));
+    assertThrows(IllegalStateException.class, () -> router.route(HttpMethod.GET, "/a", v1));
+  }
+
+  private static HttpRequest request(String path) {
+    return HttpRequest.builder()
+        .method(HttpMethod.GET)
+        .path(path)
+        .build();
+  }
+
   @Test
   public void headerMatherHasHigherPriorityThenParameterMatcher() {
     SpringWebRouter router = new SpringWebRouter();
@@ -0,0 +1,120 @@
+package com.robothy.netty.router;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class StaticResourceCacheTest {
+
+  @Test
+  void cache() {
+    StaticResourceCache cache = new StaticResourceCache(10, 8);
+    assertTrue(cache.accepts(8));
+    assertTrue(!cache.accepts(9));
+
+    ByteBuf a = Unpooled.directBuffer().writeBytes("aaaa".getBytes(StandardCharsets.UTF_8));
+    ByteBuf duplicate = cache.put("/a", 1, 4, a);
+    assertEquals(2, a.refCnt());
+    duplicate.release();
+    assertNull(cache.get("/a", 2, 4));
+    assertEquals(0, a.refCnt(), "Content loaded from another version is discarded.");
+    assertEquals(0, cache.size());
+
+    a = Unpooled.directBuffer().writeBytes("aaaa".getBytes(StandardCharsets.UTF_8));
+    cache.put("/a", 1, 4, a).release();
+    ByteBuf hit = cache.get("/a", 1, 4);
+    assertEquals("aaaa", hit.toString(StandardCharsets.UTF_8));
+    hit.release();
+
+    // Over the budget, "/a" gets a second chance since it has been read, "/b" is evicted.
+    ByteBuf b = Unpooled.directBuffer().writeBytes("bbbb".getBytes(StandardCharsets.UTF_8));
+    cache.put("/b", 1, 4, b).release();
+    ByteBuf c = Unpooled.directBuffer().writeBytes("cccc".getBytes(StandardCharsets.UTF_8));
+    ByteBuf held = cache.put("/c", 1, 4, c);
+    assertEquals(8, cache.bytes());
+    assertEquals(1, cache.evictionCount());
+    assertEquals(0, b.refCnt());
+    assertNull(cache.get("/b", 1, 4));
+
+    cache.close();
+    assertEquals(0, cache.bytes());
+    assertEquals(0, a.refCnt());
+    assertEquals("cccc", held.toString(StandardCharsets.UTF_8), "A handed out duplicate outlives the entry.");
+    held.release();
+    assertEquals(0, c.refCnt());
+
+    ByteBuf d = Unpooled.directBuffer().writeBytes("dddd".getBytes(StandardCharsets.UTF_8));
+    assertSame(d, cache.put("/d", 1, 4, d), "A closed cache doesn't take content.");
+    d.release();
+  }
+
+  @Test
+  void concurrentGetAndEvict() throws InterruptedException {
+    int keys = 8;
+    int entryBytes = 64;
+    // Room for half of the keys, so that puts keep evicting entries that readers are looking up.
+    StaticResourceCache cache = new StaticResourceCache(keys / 2 * entryBytes, entryBytes);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Thread reader = new Thread(() -> {
+        try {
+          while (!done.get()) {
+            int key = ThreadLocalRandom.current().nextInt(keys);
+            ByteBuf hit = cache.get("/" + key, 1, entryBytes);
+            if (hit != null) {
+              int corrupted = hit.forEachByte(b -> b == key);
+              hit.release();
+              if (corrupted != -1) {
+                throw new AssertionError("The content of /" + key + " was overwritten by another owner.");
+              }
+            }
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+
+    try {
+      for (int i = 0; i < 3000 && failure.get() == null; i++) {
+        int key = i % keys;
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer(entryBytes);
+        for (int j = 0; j < entryBytes; j++) {
+          content.writeByte(key);
+        }
+        cache.put("/" + key, 1, entryBytes, content).release();
+        if (i % 7 == 0) {
+          cache.invalidate("/" + ThreadLocalRandom.current().nextInt(keys));
+        }
+      }
+    } finally {
+      done.set(true);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+      cache.close();
+    }
+
+    assertNull(failure.get(), () -> "Concurrent lookup failed: " + failure.get());
+    assertTrue(cache.hitCount() > 0);
+    assertTrue(cache.evictionCount() > 0);
+    assertEquals(0, cache.bytes());
+  }
+
+}
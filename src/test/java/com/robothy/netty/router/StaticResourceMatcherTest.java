@@ -0,0 +1,441 @@
+package com.robothy.netty.router;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import com.robothy.netty.http.HttpRequest;
+import com.robothy.netty.http.HttpRequestHandler;
+import com.robothy.netty.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.Test;
+
+class StaticResourceMatcherTest {
+
+  private static final StaticResourceOptions INDEXED = StaticResourceOptions.builder().indexed(true).build();
+
+  @Test
+  void indexedDirectory() throws Exception {
+    Path directory = Files.createTempDirectory("static-resource");
+    Files.write(directory.resolve("index.html"), "<h1>Index</h1>".getBytes(StandardCharsets.UTF_8));
+    Files.createDirectories(directory.resolve("css"));
+    Files.write(directory.resolve("css/app.css"), "body {}".getBytes(StandardCharsets.UTF_8));
+
+    StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), INDEXED);
+    try {
+      assertEquals("<h1>Index</h1>", body(matcher.match(request(HttpMethod.GET, "/"))));
+      assertEquals("body {}", body(matcher.match(request(HttpMethod.GET, "/css/app.css"))));
+      assertEquals("body {}", body(matcher.match(request(HttpMethod.GET, "/css/../css//app.css"))));
+      assertNotNull(matcher.match(request(HttpMethod.HEAD, "/css/app.css")));
+      assertNull(matcher.match(request(HttpMethod.POST, "/css/app.css")));
+      assertNull(matcher.match(request(HttpMethod.GET, "/css/missing.css")));
+      assertNull(matcher.match(request(HttpMethod.GET, "/../index.html/..")));
+
+      // Changes are picked up by the watcher.
+      Files.createDirectories(directory.resolve("js"));
+      Files.write(directory.resolve("js/app.js"), "alert(1)".getBytes(StandardCharsets.UTF_8));
+      await(() -> matcher.match(request(HttpMethod.GET, "/js/app.js")) != null);
+      assertEquals("alert(1)", body(matcher.match(request(HttpMethod.GET, "/js/app.js"))));
+
+      Files.delete(directory.resolve("css/app.css"));
+      await(() -> matcher.match(request(HttpMethod.GET, "/css/app.css")) == null);
+    } finally {
+      matcher.close();
+    }
+  }
+
+  @Test
+  void indexedClasspath() throws Exception {
+    StaticResourceMatcher matcher = StaticResourceMatcher.create("classpath:static", INDEXED);
+    HttpRequestHandler handler = matcher.match(request(HttpMethod.GET, "/test.html"));
+    HttpResponse response = new HttpResponse();
+    handler.handle(request(HttpMethod.GET, "/test.html"), response);
+    assertEquals("Hello World", response.getBody().toString(StandardCharsets.UTF_8));
+    assertEquals("text/html", response.getHeaders().get(HttpHeaderNames.CONTENT_TYPE.toString()));
+    assertNull(matcher.match(request(HttpMethod.GET, "/missing.html")));
+  }
+
+  @Test
+  void headDirectory() throws Exception {
+    Path directory = Files.createTempDirectory("static-resource");
+    Files.write(directory.resolve("app.js"), "alert(1)".getBytes(StandardCharsets.UTF_8));
+    StaticResourceOptions indexed = StaticResourceOptions.builder().indexed(true).watch(false).build();
+    for (StaticResourceOptions options : new StaticResourceOptions[] {StaticResourceOptions.defaults(), indexed}) {
+      StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), options);
+      try {
+        HttpRequestHandler handler = matcher.match(request(HttpMethod.HEAD, "/app.js"));
+        assertNotNull(handler, "HEAD is served from GET, indexed or not.");
+        HttpResponse response = new HttpResponse();
+        handler.handle(request(HttpMethod.HEAD, "/app.js"), response);
+        assertEquals(8, response.contentLength());
+        response.release();
+        assertNull(matcher.match(request(HttpMethod.POST, "/app.js")));
+      } finally {
+        matcher.close();
+      }
+    }
+  }
+
+  @Test
+  void cachedDirectory() throws Exception {
+    Path directory = Files.createTempDirectory("static-resource");
+    Path file = directory.resolve("app.js");
+    Files.write(file, "alert(1)".getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("large.js"), new byte[64]);
+
+    StaticResourceOptions options = StaticResourceOptions.builder()
+        .cacheSize(1024)
+        .cacheMaxResourceSize(32)
+        .build();
+    StaticResourceOptions indexedOptions = StaticResourceOptions.builder()
+        .indexed(true)
+        .watch(false)
+        .cacheSize(1024)
+        .cacheMaxResourceSize(32)
+        .build();
+    for (StaticResourceOptions matcherOptions : new StaticResourceOptions[] {options, indexedOptions}) {
+      StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), matcherOptions);
+      try {
+        HttpResponse first = new HttpResponse();
+        matcher.match(request(HttpMethod.GET, "/app.js")).handle(request(HttpMethod.GET, "/app.js"), first);
+        HttpResponse second = new HttpResponse();
+        matcher.match(request(HttpMethod.GET, "/app.js")).handle(request(HttpMethod.GET, "/app.js"), second);
+        assertEquals("alert(1)", second.getBody().toString(StandardCharsets.UTF_8));
+        assertTrue(second.getBody().isDirect());
+        assertSame(root(first.getBody()), root(second.getBody()), "Responses share the cached buffer.");
+        first.release();
+        second.release();
+
+        HttpResponse large = new HttpResponse();
+        matcher.match(request(HttpMethod.GET, "/large.js")).handle(request(HttpMethod.GET, "/large.js"), large);
+        assertNotNull(large.getFile(), "Files over the limit are sent from the file.");
+      } finally {
+        matcher.close();
+      }
+    }
+
+    // A change of the modification time invalidates the cached content.
+    StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), options);
+    try {
+      assertEquals("alert(1)", content(matcher, "/app.js"));
+      Files.write(file, "alert(2)".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10_000));
+      assertEquals("alert(2)", content(matcher, "/app.js"));
+    } finally {
+      matcher.close();
+    }
+  }
+
+  @Test
+  void compression() throws Exception {
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br"));
+    assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+    assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+    assertNull(ContentEncoding.negotiate("gzip;q=0, br"));
+    assertNull(ContentEncoding.negotiate("identity"));
+
+    Path directory = Files.createTempDirectory("static-resource");
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      script.append("console.log(").append(i).append(");\n");
+    }
+    Files.write(directory.resolve("app.js"), script.toString().getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("small.css"), "body {}".getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("style.css"), script.toString().getBytes(StandardCharsets.UTF_8));
+    ByteArrayOutputStream precompressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(precompressed)) {
+      out.write("precompressed".getBytes(StandardCharsets.UTF_8));
+    }
+    Files.write(directory.resolve("style.css.gz"), precompressed.toByteArray());
+
+    for (boolean indexed : new boolean[] {false, true}) {
+      StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), StaticResourceOptions.builder()
+          .indexed(indexed)
+          .watch(false)
+          .cacheSize(1024 * 1024)
+          .compression(true)
+          .build());
+      try {
+        HttpResponse gzip = get(matcher, "/app.js", HttpHeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+        assertEquals("gzip", gzip.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING.toString()));
+        assertEquals("accept-encoding", gzip.getHeaders().get(HttpHeaderNames.VARY.toString()));
+        assertTrue(gzip.contentLength() < script.length());
+        assertEquals(script.toString(), decode(new GZIPInputStream(bytes(gzip))));
+        HttpResponse again = get(matcher, "/app.js", HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        assertSame(root(gzip.getBody()), root(again.getBody()), "The resource is compressed once.");
+
+        HttpResponse deflate = get(matcher, "/app.js", HttpHeaderNames.ACCEPT_ENCODING, "deflate");
+        assertEquals("deflate", deflate.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING.toString()));
+        assertEquals(script.toString(), decode(new InflaterInputStream(bytes(deflate))));
+
+        HttpResponse identity = get(matcher, "/app.js");
+        assertNull(identity.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING.toString()));
+        assertEquals("accept-encoding", identity.getHeaders().get(HttpHeaderNames.VARY.toString()));
+        assertEquals(script.toString(), decode(bytes(identity)));
+        assertNotEquals(identity.getHeaders().get(HttpHeaderNames.ETAG.toString()),
+            gzip.getHeaders().get(HttpHeaderNames.ETAG.toString()), "Each coding has its own entity tag.");
+
+        HttpResponse sibling = get(matcher, "/style.css", HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        assertEquals("gzip", sibling.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING.toString()));
+        assertEquals("text/css", sibling.getHeaders().get(HttpHeaderNames.CONTENT_TYPE.toString()));
+        assertEquals("precompressed", decode(new GZIPInputStream(bytes(sibling))));
+
+        HttpResponse small = get(matcher, "/small.css", HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+        assertNull(small.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING.toString()));
+        assertEquals("body {}", decode(bytes(small)));
+
+        for (HttpResponse response : new HttpResponse[] {gzip, again, deflate, identity, sibling, small}) {
+          response.release();
+        }
+      } finally {
+        matcher.close();
+      }
+    }
+  }
+
+  @Test
+  void conditional() throws Exception {
+    Path directory = Files.createTempDirectory("static-resource");
+    Path file = directory.resolve("app.js");
+    Files.write(file, "alert(1)".getBytes(StandardCharsets.UTF_8));
+
+    for (boolean indexed : new boolean[] {false, true}) {
+      StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), StaticResourceOptions.builder()
+          .indexed(indexed)
+          .watch(false)
+          .cacheControl("max-age=60")
+          .build());
+      try {
+        HttpResponse response = get(matcher, "/app.js");
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("max-age=60", response.getHeaders().get(HttpHeaderNames.CACHE_CONTROL.toString()));
+        String etag = response.getHeaders().get(HttpHeaderNames.ETAG.toString());
+        String lastModified = response.getHeaders().get(HttpHeaderNames.LAST_MODIFIED.toString());
+        assertNotNull(etag);
+        assertNotNull(lastModified);
+
+        HttpResponse notModified = get(matcher, "/app.js", HttpHeaderNames.IF_NONE_MATCH, etag);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, notModified.getStatus());
+        assertEquals(0, notModified.contentLength());
+        assertEquals(etag, notModified.getHeaders().get(HttpHeaderNames.ETAG.toString()));
+        assertEquals("max-age=60", notModified.getHeaders().get(HttpHeaderNames.CACHE_CONTROL.toString()));
+        assertEquals(HttpResponseStatus.NOT_MODIFIED,
+            get(matcher, "/app.js", HttpHeaderNames.IF_NONE_MATCH, "\"other\", W/" + etag).getStatus());
+        assertEquals(HttpResponseStatus.OK,
+            get(matcher, "/app.js", HttpHeaderNames.IF_NONE_MATCH, "\"other\"").getStatus());
+        assertEquals(HttpResponseStatus.NOT_MODIFIED,
+            get(matcher, "/app.js", HttpHeaderNames.IF_MODIFIED_SINCE, lastModified).getStatus());
+        assertEquals(HttpResponseStatus.OK,
+            get(matcher, "/app.js", HttpHeaderNames.IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:01 GMT").getStatus());
+        // If-None-Match takes precedence over If-Modified-Since.
+        assertEquals(HttpResponseStatus.OK, get(matcher, "/app.js", HttpHeaderNames.IF_NONE_MATCH, "\"other\"",
+            HttpHeaderNames.IF_MODIFIED_SINCE, lastModified).getStatus());
+      } finally {
+        matcher.close();
+      }
+    }
+
+    // The indexed validators are checked without opening the file.
+    StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), StaticResourceOptions.builder()
+        .indexed(true)
+        .watch(false)
+        .build());
+    try {
+      String etag = get(matcher, "/app.js").getHeaders().get(HttpHeaderNames.ETAG.toString());
+      Files.delete(file);
+      assertEquals(HttpResponseStatus.NOT_MODIFIED,
+          get(matcher, "/app.js", HttpHeaderNames.IF_NONE_MATCH, etag).getStatus());
+    } finally {
+      matcher.close();
+    }
+  }
+
+  @Test
+  void ranges() throws Exception {
+    assertEquals(Collections.singletonList("0-4"), ranges("bytes=0-4", 10));
+    assertEquals(Collections.singletonList("7-9"), ranges("bytes=-3", 10));
+    assertEquals(Collections.singletonList("8-9"), ranges("bytes=8-100", 10));
+    assertEquals(Arrays.asList("0-3", "6-7"), ranges("bytes=6-7, 0-1, 1-3", 10));
+    assertEquals(Collections.emptyList(), ranges("bytes=10-", 10));
+    assertNull(ranges("items=0-1", 10));
+    assertNull(ranges("bytes=5-1", 10));
+    assertNull(ranges("bytes=a-b", 10));
+    assertNull(ranges("bytes=--5", 10));
+    assertNull(ranges("bytes=-+5", 10));
+    assertNull(ranges("bytes=+1-5", 10));
+    assertNull(ranges("bytes=1-+5", 10));
+
+    Path directory = Files.createTempDirectory("static-resource");
+    Files.write(directory.resolve("video.mp4"), "0123456789".getBytes(StandardCharsets.UTF_8));
+
+    for (long cacheSize : new long[] {0, 1024}) {
+      StaticResourceMatcher matcher = StaticResourceMatcher.create(directory.toString(), StaticResourceOptions.builder()
+          .cacheSize(cacheSize)
+          .build());
+      try {
+        HttpResponse whole = get(matcher, "/video.mp4");
+        assertEquals(HttpResponseStatus.OK, whole.getStatus());
+        assertEquals("bytes", whole.getHeaders().get(HttpHeaderNames.ACCEPT_RANGES.toString()));
+        String etag = whole.getHeaders().get(HttpHeaderNames.ETAG.toString());
+
+        HttpResponse single = get(matcher, "/video.mp4", HttpHeaderNames.RANGE, "bytes=2-5");
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, single.getStatus());
+        assertEquals("bytes 2-5/10", single.getHeaders().get(HttpHeaderNames.CONTENT_RANGE.toString()));
+        assertEquals(4, single.contentLength());
+        assertEquals("2345", text(single));
+
+        HttpResponse multiple = get(matcher, "/video.mp4", HttpHeaderNames.RANGE, "bytes=0-1,-2");
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, multiple.getStatus());
+        String contentType = multiple.getHeaders().get(HttpHeaderNames.CONTENT_TYPE.toString());
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        String type = StaticResource.contentType("video.mp4");
+        assertEquals("\r\n--" + boundary + "\r\ncontent-type: " + type + "\r\ncontent-range: bytes 0-1/10\r\n\r\n01"
+            + "\r\n--" + boundary + "\r\ncontent-type: " + type + "\r\ncontent-range: bytes 8-9/10\r\n\r\n89"
+            + "\r\n--" + boundary + "--\r\n", text(multiple));
+
+        HttpResponse unsatisfiable = get(matcher, "/video.mp4", HttpHeaderNames.RANGE, "bytes=10-");
+        assertEquals(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE, unsatisfiable.getStatus());
+        assertEquals("bytes */10", unsatisfiable.getHeaders().get(HttpHeaderNames.CONTENT_RANGE.toString()));
+
+        HttpResponse unchanged = get(matcher, "/video.mp4",
+            HttpHeaderNames.RANGE, "bytes=2-5", HttpHeaderNames.IF_RANGE, etag);
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, unchanged.getStatus());
+        HttpResponse changed = get(matcher, "/video.mp4",
+            HttpHeaderNames.RANGE, "bytes=2-5", HttpHeaderNames.IF_RANGE, "\"old\"");
+        assertEquals(HttpResponseStatus.OK, changed.getStatus());
+        assertEquals("0123456789", text(changed));
+
+        for (HttpResponse response : new HttpResponse[] {whole, single, multiple, unsatisfiable, unchanged, changed}) {
+          response.release();
+        }
+      } finally {
+        matcher.close();
+      }
+    }
+  }
+
+  private static List<String> ranges(String range, long size) {
+    List<ByteRange> ranges = ByteRange.parse(range, size);
+    if (ranges == null) {
+      return null;
+    }
+    List<String> strings = new ArrayList<>();
+    ranges.forEach(byteRange -> strings.add(byteRange.start() + "-" + byteRange.end()));
+    return strings;
+  }
+
+  @Test
+  void router() {
+    Router router = new DefaultRouter().staticResource("classpath:static", INDEXED);
+    assertEquals(Router.DEFAULT_NOT_FOUND_HANDLER, router.match(request(HttpMethod.GET, "/api/missing")));
+    assertNotNull(router.match(request(HttpMethod.GET, "/test.html")));
+  }
+
+  private static HttpRequest request(HttpMethod method, String path) {
+    return HttpRequest.builder().method(method).path(path).build();
+  }
+
+  private static String body(HttpRequestHandler handler) throws Exception {
+    HttpResponse response = new HttpResponse();
+    handler.handle(null, response);
+    return text(response);
+  }
+
+  private static String text(HttpResponse response) throws Exception {
+    if (response.getFile() != null) {
+      return new String(Files.readAllBytes(response.getFile()), StandardCharsets.UTF_8)
+          .substring((int) response.getFilePosition(), (int) (response.getFilePosition() + response.getFileLength()));
+    }
+    return response.getBody().toString(StandardCharsets.UTF_8);
+  }
+
+  private static String content(StaticResourceMatcher matcher, String path) throws Exception {
+    HttpRequest request = request(HttpMethod.GET, path);
+    HttpResponse response = new HttpResponse();
+    matcher.match(request).handle(request, response);
+    try {
+      return response.getBody().toString(StandardCharsets.UTF_8);
+    } finally {
+      response.getBody().release();
+    }
+  }
+
+  /**
+   * @param headers names and values of request headers.
+   */
+  private static HttpResponse get(StaticResourceMatcher matcher, String path, CharSequence... headers)
+      throws Exception {
+    Map<CharSequence, String> headerMap = new HashMap<>();
+    for (int i = 0; i < headers.length; i += 2) {
+      headerMap.put(headers[i].toString(), headers[i + 1].toString());
+    }
+    HttpRequest request = HttpRequest.builder()
+        .method(HttpMethod.GET)
+        .path(path)
+        .headers(headerMap)
+        .build();
+    HttpResponse response = new HttpResponse();
+    matcher.match(request).handle(request, response);
+    return response;
+  }
+
+  /**
+   * @return the buffer that {@code buf} is derived from, behind leak-detection wrappers.
+   */
+  private static ByteBuf root(ByteBuf buf) {
+    while (buf.unwrap() != null) {
+      buf = buf.unwrap();
+    }
+    return buf;
+  }
+
+  private static InputStream bytes(HttpResponse response) {
+    byte[] bytes = new byte[response.getBody().readableBytes()];
+    response.getBody().getBytes(response.getBody().readerIndex(), bytes);
+    return new ByteArrayInputStream(bytes);
+  }
+
+  private static String decode(InputStream in) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      out.write(buf, 0, n);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("Timed out waiting for the static resource index.");
+      }
+      Thread.sleep(50);
+    }
+  }
+
+}